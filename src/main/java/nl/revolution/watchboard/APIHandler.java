@@ -1,10 +1,14 @@
 package nl.revolution.watchboard;
 
 import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.plugins.CaptureScheduler;
 import nl.revolution.watchboard.utils.IpAddressUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.ContextHandler;
@@ -30,10 +34,15 @@ import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class APIHandler extends AbstractHandler {
 
@@ -44,6 +53,8 @@ public class APIHandler extends AbstractHandler {
     private static final String LOADING_ICON_PATH = "/web/loading.gif";
     private static final Charset CHARSET_UTF_8 = Charset.forName("UTF-8");
     private static final int USER_STATS_LOG_INTERVAL_MINUTES = 5;
+    private static final int DEFAULT_REFRESH_MAX_WAIT_SECONDS = 60;
+    private static final int SC_TOO_MANY_REQUESTS = 429;
 
     // Caches.
     private static Map<String, ContextHandler> resourceHandlerCache = Collections.synchronizedMap(new HashMap<>());
@@ -57,6 +68,12 @@ public class APIHandler extends AbstractHandler {
         final String contextRoot = Config.getInstance().getContextRoot() + "api/v1/";
         final String requestURI = request.getRequestURI();
 
+        if (requestURI.endsWith("/refresh")
+                && (requestURI.startsWith(contextRoot + "graphs/") || requestURI.startsWith(contextRoot + "dashboards/"))) {
+            handleRefreshRequest(baseRequest, request, response, contextRoot);
+            return;
+        }
+
         if (requestURI.equals(contextRoot + "dashboards")) {
             createDashboardsResponse(baseRequest, response);
             return;
@@ -86,6 +103,21 @@ public class APIHandler extends AbstractHandler {
             return;
         }
 
+        if (requestURI.startsWith(contextRoot + "scheduler")) {
+            createSchedulerResponse(baseRequest, response);
+            return;
+        }
+
+        if (requestURI.startsWith(contextRoot + "viewers")) {
+            createViewersResponse(baseRequest, response);
+            return;
+        }
+
+        if (requestURI.startsWith(contextRoot + "metrics")) {
+            createMetricsResponse(baseRequest, response);
+            return;
+        }
+
         // Serve dashboard.html for all configured dashboards.
         for (String dashboardId : Config.getInstance().getDashboardIds()) {
             if (requestURI.startsWith(Config.getInstance().getContextRoot() + dashboardId)) {
@@ -169,12 +201,14 @@ public class APIHandler extends AbstractHandler {
             }
         }
 
-        userStats.add(determineRemoteUserFingerPrint(request));
+        String fingerPrint = determineRemoteUserFingerPrint(request);
+        userStats.add(fingerPrint);
 
         response.setContentType(CONTENT_TYPE_JSON_UTF8);
         response.setStatus(HttpServletResponse.SC_OK);
         baseRequest.setHandled(true);
         Dashboard dashboard = dashboardOpt.get();
+        CaptureScheduler.getInstance().dashboardViewed(dashboard.getId(), fingerPrint);
 
         JSONObject jsonResponse = new JSONObject();
         jsonResponse.put("appVersion", DashboardServer.getAppVersion());
@@ -210,6 +244,10 @@ public class APIHandler extends AbstractHandler {
             return;
         }
 
+        if (filename.endsWith(Graph.IMAGE_SUFFIX)) {
+            CaptureScheduler.getInstance().graphViewed(filename.substring(0, filename.length() - Graph.IMAGE_SUFFIX.length()));
+        }
+
         File imageFile = new File(IMAGE_PATH + "/" + filename);
         OutputStream out = response.getOutputStream();
         try {
@@ -309,6 +347,143 @@ public class APIHandler extends AbstractHandler {
         }
     }
 
+    private void createSchedulerResponse(Request baseRequest, HttpServletResponse response) {
+        response.setContentType(CONTENT_TYPE_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+
+        JSONObject jsonResponse = CaptureScheduler.getInstance().toJSON();
+
+        try {
+            OutputStream out = response.getOutputStream();
+            out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            LOG.error("Error while creating scheduler response: ", e);
+        }
+    }
+
+    /**
+     * POST graphs/{id}/refresh or dashboards/{id}/refresh captures the graph(s) ahead of the schedule. With a 'wait'
+     * parameter (seconds), the response is only sent once the new images are published or the wait is over.
+     */
+    private void handleRefreshRequest(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+                                      String contextRoot) {
+        response.setContentType(CONTENT_TYPE_JSON_UTF8);
+        baseRequest.setHandled(true);
+        if (!"POST".equals(request.getMethod())) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        CaptureScheduler scheduler = CaptureScheduler.getInstance();
+        String requestURI = request.getRequestURI();
+        String path = requestURI.substring(contextRoot.length(), requestURI.length() - "/refresh".length());
+        List<String> graphIds = path.startsWith("graphs/")
+                ? Collections.singletonList(path.substring("graphs/".length()))
+                : scheduler.getGraphIds(path.substring("dashboards/".length()));
+        if (graphIds == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Map<String, CaptureScheduler.RefreshStatus> statuses = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Boolean>> pending = new LinkedHashMap<>();
+        for (String graphId : graphIds) {
+            CompletableFuture<Boolean> published = new CompletableFuture<>();
+            CaptureScheduler.RefreshStatus status = scheduler.requestRefresh(graphId, published);
+            statuses.put(graphId, status);
+            if (status == CaptureScheduler.RefreshStatus.QUEUED || status == CaptureScheduler.RefreshStatus.COALESCED) {
+                pending.put(graphId, published);
+            }
+        }
+
+        int maxWaitSeconds = Config.getInstance().getInt(Config.SCHEDULER_REFRESH_MAX_WAIT_SECONDS, DEFAULT_REFRESH_MAX_WAIT_SECONDS);
+        int waitSeconds = Math.min(maxWaitSeconds, NumberUtils.toInt(request.getParameter("wait"), 0));
+        boolean waited = waitSeconds > 0 && !pending.isEmpty();
+        if (waited) {
+            try {
+                CompletableFuture.allOf(pending.values().toArray(new CompletableFuture[pending.size()]))
+                        .get(waitSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                LOG.debug("Refresh of {} not published within {} seconds.", path, waitSeconds);
+            } catch (InterruptedException | ExecutionException e) {
+                LOG.warn("Error while waiting for refresh of {}: {}", path, e.getMessage());
+            }
+        }
+
+        JSONArray graphsJa = new JSONArray();
+        boolean allPublished = !pending.isEmpty();
+        for (Map.Entry<String, CaptureScheduler.RefreshStatus> entry : statuses.entrySet()) {
+            JSONObject graphJo = new JSONObject();
+            graphJo.put(Config.ID, entry.getKey());
+            graphJo.put("status", entry.getValue().name().toLowerCase());
+            CompletableFuture<Boolean> published = pending.get(entry.getKey());
+            if (waited && published != null) {
+                boolean isPublished = Boolean.TRUE.equals(published.getNow(false));
+                graphJo.put("published", isPublished);
+                allPublished &= isPublished;
+            }
+            graphsJa.add(graphJo);
+        }
+        JSONObject jsonResponse = new JSONObject();
+        jsonResponse.put("graphs", graphsJa);
+
+        if (statuses.values().stream().allMatch(status -> status == CaptureScheduler.RefreshStatus.NOT_FOUND)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else if (pending.isEmpty()) {
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+        } else if (waited && allPublished) {
+            response.setStatus(HttpServletResponse.SC_OK);
+        } else {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+
+        try {
+            OutputStream out = response.getOutputStream();
+            out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            LOG.error("Error while creating refresh response: ", e);
+        }
+    }
+
+    private void createViewersResponse(Request baseRequest, HttpServletResponse response) {
+        response.setContentType(CONTENT_TYPE_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+
+        JSONObject jsonResponse = CaptureScheduler.getInstance().viewersToJSON();
+
+        try {
+            OutputStream out = response.getOutputStream();
+            out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            LOG.error("Error while creating viewers response: ", e);
+        }
+    }
+
+    private void createMetricsResponse(Request baseRequest, HttpServletResponse response) {
+        response.setContentType(CONTENT_TYPE_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+
+        JSONObject jsonResponse = Metrics.getInstance().toJSON();
+
+        try {
+            OutputStream out = response.getOutputStream();
+            out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            LOG.error("Error while creating metrics response: ", e);
+        }
+    }
+
     private String determineRemoteUserFingerPrint(HttpServletRequest request) {
         try {
             return IpAddressUtil.getClientIp(request) + "_" + request.getHeader("User-Agent") + "_" + request.getHeader("Accept-Language");
@@ -40,6 +40,64 @@ public class Config {
     public static final String DASHBOARD_CONFIG_PERSISTENCE_TYPE = "dashboard.config.persistence.type";
     public static final String BROWSER_INSTANCES = "browserInstances";
     public static final String BROWSER_INSTANCE = "browserInstance";
+    public static final String BROWSER_POOL_SIZE = "browserPoolSize";
+    public static final String PROXY_BLOCKED_HOSTS = "proxy.blockedHosts";
+    public static final String DRIVER_BACKEND = "driver.backend";
+    public static final String SCHEDULER_STEAL_THRESHOLD = "scheduler.stealThreshold";
+    public static final String SCHEDULER_STEAL_AFTER_SECONDS = "scheduler.stealAfterSeconds";
+    public static final String SCHEDULER_DEMAND_DRIVEN_ENABLED = "scheduler.demandDriven.enabled";
+    public static final String SCHEDULER_BACKGROUND_INTERVAL_SECONDS = "scheduler.demandDriven.backgroundIntervalSeconds";
+    public static final String SCHEDULER_VIEWER_TIMEOUT_SECONDS = "scheduler.demandDriven.viewerTimeoutSeconds";
+    public static final String SCHEDULER_ADAPTIVE_ENABLED = "scheduler.adaptive.enabled";
+    public static final String SCHEDULER_ADAPTIVE_MAX_INTERVAL_SECONDS = "scheduler.adaptive.maxIntervalSeconds";
+    public static final String SCHEDULER_CIRCUIT_FAILURE_THRESHOLD = "scheduler.circuitBreaker.failureThreshold";
+    public static final String SCHEDULER_CIRCUIT_BASE_BACKOFF_SECONDS = "scheduler.circuitBreaker.baseBackoffSeconds";
+    public static final String SCHEDULER_CIRCUIT_MAX_BACKOFF_SECONDS = "scheduler.circuitBreaker.maxBackoffSeconds";
+    public static final String BROWSER_RECYCLE_SAMPLE_INTERVAL_SECONDS = "browser.recycle.sampleIntervalSeconds";
+    public static final String BROWSER_RECYCLE_MAX_RSS_MB = "browser.recycle.maxRssMB";
+    public static final String BROWSER_RECYCLE_MAX_CPU_PERCENT = "browser.recycle.maxCpuPercent";
+    public static final String BROWSER_RECYCLE_LATENCY_FACTOR = "browser.recycle.latencyFactor";
+    public static final String STARTUP_PARALLELISM = "startup.parallelism";
+    public static final String AUTOSCALER_ENABLED = "autoscaler.enabled";
+    public static final String AUTOSCALER_MAX_BROWSERS = "autoscaler.maxBrowsers";
+    public static final String AUTOSCALER_CHECK_INTERVAL_SECONDS = "autoscaler.checkIntervalSeconds";
+    public static final String AUTOSCALER_SCALE_UP_LAG_SECONDS = "autoscaler.scaleUpLagSeconds";
+    public static final String AUTOSCALER_SCALE_DOWN_LAG_SECONDS = "autoscaler.scaleDownLagSeconds";
+    public static final String AUTOSCALER_SCALE_UP_AFTER_CHECKS = "autoscaler.scaleUpAfterChecks";
+    public static final String AUTOSCALER_SCALE_DOWN_IDLE_SECONDS = "autoscaler.scaleDownIdleSeconds";
+    public static final String AUTOSCALER_COOLDOWN_SECONDS = "autoscaler.cooldownSeconds";
+    public static final String AUTOSCALER_MIN_FREE_MEMORY_MB = "autoscaler.minFreeMemoryMB";
+    public static final String AUTOSCALER_MAX_LOAD_PERCENT = "autoscaler.maxLoadPercent";
+    public static final String SCHEDULER_HEDGING_ENABLED = "scheduler.hedging.enabled";
+    public static final String SCHEDULER_HEDGING_MAX_CONCURRENT = "scheduler.hedging.maxConcurrent";
+    public static final String SCHEDULER_HEDGING_BUDGET_PERCENT = "scheduler.hedging.budgetPercent";
+    public static final String SCHEDULER_REFRESH_MAX_PER_MINUTE = "scheduler.refresh.maxPerMinute";
+    public static final String SCHEDULER_REFRESH_MAX_WAIT_SECONDS = "scheduler.refresh.maxWaitSeconds";
+    public static final String CAPTURE_TIMEOUT_FACTOR = "capture.timeouts.factor";
+    public static final String CAPTURE_MIN_PHASE_TIMEOUT_SECONDS = "capture.timeouts.minPhaseSeconds";
+    public static final String CAPTURE_MIN_DEADLINE_SECONDS = "capture.timeouts.minDeadlineSeconds";
+    public static final String CAPTURE_MAX_DEADLINE_SECONDS = "capture.timeouts.maxDeadlineSeconds";
+    public static final String CAPTURE_WATCHDOG_GRACE_SECONDS = "capture.timeouts.watchdogGraceSeconds";
+    public static final String SCHEDULER_CIRCUIT_RESTART_AFTER_FAILED_GRAPHS = "scheduler.circuitBreaker.restartAfterFailedGraphs";
+    public static final String RETRY_LOGIN = "retry.login";
+    public static final String RETRY_DRIVER_START = "retry.driverStart";
+    public static final String BROWSER_TABS = "browser.tabs";
+    public static final String TOPOLOGY_CHECK_INTERVAL_SECONDS = "topology.checkIntervalSeconds";
+    public static final String CAPTURE_PIPELINE_ENABLED = "capture.pipeline.enabled";
+    public static final String CAPTURE_PIPELINE_THREADS = "capture.pipeline.threads";
+    public static final String CAPTURE_PIPELINE_QUEUE_SIZE = "capture.pipeline.queueSize";
+    public static final String CAPTURE_READINESS_ENABLED = "capture.readiness.enabled";
+    public static final String CAPTURE_READINESS_QUIET_MILLIS = "capture.readiness.quietMillis";
+    public static final String PROXY_ENABLED = "proxy.enabled";
+    public static final String PROXY_CACHE_PATH = "proxy.cache.path";
+    public static final String PROXY_CACHE_MAX_MEGABYTES = "proxy.cache.maxMegabytes";
+    public static final String PROXY_CACHE_MAX_AGE_HOURS = "proxy.cache.maxAgeHours";
+    public static final String SESSION_COOKIES_ENABLED = "session.cookies.enabled";
+    public static final String SESSION_COOKIES_MAX_AGE_MINUTES = "session.cookies.maxAgeMinutes";
+    public static final String SESSION_COOKIES_FILE = "session.cookies.file";
+    public static final String SESSION_COOKIES_KEY = "session.cookies.key";
+    public static final String DRIVER_CHROME_DRIVER_PATH = "driver.chrome.driverPath";
+    public static final String DRIVER_CHROME_BINARY = "driver.chrome.binary";
 
     private enum DashboardConfigPersistenceType {
         DISK,
@@ -54,15 +112,9 @@ public class Config {
     public static final String PASSWORD = "password";
 
     private static Config instance;
-    private JSONObject globalConfig;
-    private JSONObject dashboardsConfig;
-    private List<Dashboard> dashboards;
-    private List<Plugin> plugins;
-    private DashboardConfigPersistenceType dashboardConfigPersistenceType;
-    private DashboardConfig dashboardConfigStore;
     private DiskConfigStore diskConfigStore;
-    private String globalConfigFileLastModifiedOnDisk;
-    private String dashboardConfigLastModified;
+    // Replaced as a whole when the config is reloaded, so readers never see a mix of the old and the new config.
+    private volatile Snapshot snapshot;
 
     public static Config getInstance() {
         if (instance != null) {
@@ -84,30 +136,40 @@ public class Config {
 
     public Config() throws IOException, ParseException {
         diskConfigStore = new DiskConfigStore();
-        intializeConfig();
+        snapshot = loadConfig();
     }
 
-    private void intializeConfig() throws IOException, ParseException {
-        readGlobalConfig();
-        validateGlobalConfig();
-        readDashboardsConfig();
-        validateDashboardsConfig();
-        parsePlugins();
-        parseDashboards();
-        globalConfigFileLastModifiedOnDisk = diskConfigStore.getLastUpdated();
-        dashboardConfigLastModified = dashboardConfigStore.getLastUpdated();
-
-        LOG.info("Config initialized. Configured {} dashboards with a total of {} graphs.",
-                dashboards.size(), dashboards.stream().map(Dashboard::getGraphs).flatMap(Collection::stream).count());
+    /**
+     * Reads, validates and parses the complete config. The result only replaces the config in use once it is complete.
+     */
+    private Snapshot loadConfig() throws IOException, ParseException {
+        Snapshot loaded = new Snapshot();
+        readGlobalConfig(loaded);
+        validateGlobalConfig(loaded);
+        readDashboardsConfig(loaded);
+        validateDashboardsConfig(loaded);
+        parsePlugins(loaded);
+        parseDashboards(loaded);
+        loaded.globalConfigFileLastModifiedOnDisk = diskConfigStore.getLastUpdated();
+        loaded.dashboardConfigLastModified = loaded.dashboardConfigStore.getLastUpdated();
+
+        LOG.info("Config initialized. Configured {} dashboards with a total of {} graphs.", loaded.dashboards.size(),
+                loaded.dashboards.stream().map(Dashboard::getGraphs).flatMap(Collection::stream).count());
+        return loaded;
     }
 
-    public void checkForConfigUpdate() {
+    /**
+     * Reloads the config when it changed on disk or in DynamoDB. Called from several threads; a single reload runs at
+     * a time.
+     */
+    public synchronized void checkForConfigUpdate() {
+        Snapshot current = snapshot;
         LOG.info("Checking for updated global config file on disk.");
         String lastModifiedOnDisk = diskConfigStore.getLastUpdated();
-        if (!lastModifiedOnDisk.equals(globalConfigFileLastModifiedOnDisk)) {
+        if (!lastModifiedOnDisk.equals(current.globalConfigFileLastModifiedOnDisk)) {
             LOG.info("Newer config file exists on disk, reloading.");
             try {
-                intializeConfig();
+                snapshot = loadConfig();
                 return;
             } catch (IOException | ParseException ex) {
                 LOG.error("Error while reloading config file from disk: ", ex);
@@ -115,13 +177,13 @@ public class Config {
         }
 
         // In case of DynamoDB config storage, also check for updates on database level.
-        if (dashboardConfigPersistenceType == DashboardConfigPersistenceType.DYNAMODB) {
+        if (current.dashboardConfigPersistenceType == DashboardConfigPersistenceType.DYNAMODB) {
             LOG.info("Checking for updated config in DynamoDB.");
-            String configLastUpdatedInDB = dashboardConfigStore.getLastUpdated();
-            if (!configLastUpdatedInDB.equals(dashboardConfigLastModified)) {
+            String configLastUpdatedInDB = current.dashboardConfigStore.getLastUpdated();
+            if (!configLastUpdatedInDB.equals(current.dashboardConfigLastModified)) {
                 LOG.info("Newer config in DynamoDB than in memory, reloading.");
                 try {
-                    intializeConfig();
+                    snapshot = loadConfig();
                     return;
                 } catch (IOException | ParseException ex) {
                     LOG.error("Error while reloading config from DynamoDB: ", ex);
@@ -130,51 +192,51 @@ public class Config {
         }
     }
 
-    private void readGlobalConfig() throws IOException, ParseException {
+    private void readGlobalConfig(Snapshot loaded) throws IOException, ParseException {
         // Read base config file from disk.
         String configStr = diskConfigStore.readGlobalConfigFromDisk();
-        globalConfig = (JSONObject) new JSONParser().parse(new StringReader(configStr));
+        loaded.globalConfig = (JSONObject) new JSONParser().parse(new StringReader(configStr));
 
         // In case of disk dashboard config storage, the dashboard config is in the same config file,
         // but it's stored in a different object. Remove it from global config when present.
-        globalConfig.remove(DASHBOARDS);
+        loaded.globalConfig.remove(DASHBOARDS);
     }
 
-    private void readDashboardsConfig() throws IOException, ParseException {
-        String persistenceType = getString(DASHBOARD_CONFIG_PERSISTENCE_TYPE);
+    private void readDashboardsConfig(Snapshot loaded) throws IOException, ParseException {
+        String persistenceType = readString(loaded.globalConfig, DASHBOARD_CONFIG_PERSISTENCE_TYPE);
         if ("dynamodb".equals(persistenceType.toLowerCase())) {
             LOG.info("Using DynamoDB as persistence store for dashboard config.");
-            dashboardConfigPersistenceType = DashboardConfigPersistenceType.DYNAMODB;
-            dashboardConfigStore = new DynamoDBConfigStore(globalConfig);
+            loaded.dashboardConfigPersistenceType = DashboardConfigPersistenceType.DYNAMODB;
+            loaded.dashboardConfigStore = new DynamoDBConfigStore(loaded.globalConfig);
         } else {
             LOG.info("Using disk as persistence store for dashboard config.");
-            dashboardConfigPersistenceType = DashboardConfigPersistenceType.DISK;
+            loaded.dashboardConfigPersistenceType = DashboardConfigPersistenceType.DISK;
 
             // Re-use existing disk config store (needed for global config).
-            dashboardConfigStore = diskConfigStore;
+            loaded.dashboardConfigStore = diskConfigStore;
         }
 
-        String configStr = dashboardConfigStore.readConfig();
-        dashboardsConfig = new JSONObject();
+        String configStr = loaded.dashboardConfigStore.readConfig();
+        loaded.dashboardsConfig = new JSONObject();
 
         if (configStr != null) {
             JSONObject fullConfig = (JSONObject) new JSONParser().parse(new StringReader(configStr));
-            dashboardsConfig.put("dashboards", fullConfig.get("dashboards"));
+            loaded.dashboardsConfig.put("dashboards", fullConfig.get("dashboards"));
         }
     }
 
 
-    private void validateGlobalConfig() {
+    private void validateGlobalConfig(Snapshot loaded) {
         // Check global config.
         REQUIRED_CONFIG_KEYS_GLOBAL.stream().forEach(requiredKey -> {
-            if (!globalConfig.containsKey(requiredKey)) {
+            if (!loaded.globalConfig.containsKey(requiredKey)) {
                 throw new RuntimeException("Required config key '" + requiredKey + "' is missing.");
             }
         });
     }
 
-    private void validateDashboardsConfig() {
-        String validationResults = Dashboard.validateConfig(dashboardsConfig);
+    private void validateDashboardsConfig(Snapshot loaded) {
+        String validationResults = Dashboard.validateConfig(loaded.dashboardsConfig);
 
         if (StringUtils.isNotEmpty(validationResults)) {
             LOG.error("Validation of dashboards config failed: \n" + validationResults);
@@ -182,13 +244,13 @@ public class Config {
         }
     }
 
-    private void parseDashboards() {
-        dashboards = Dashboard.parseConfig(dashboardsConfig, plugins, getString(TEMP_PATH));
+    private void parseDashboards(Snapshot loaded) {
+        loaded.dashboards = Dashboard.parseConfig(loaded.dashboardsConfig, loaded.plugins, readString(loaded.globalConfig, TEMP_PATH));
     }
 
-    private void parsePlugins() {
-        plugins = new ArrayList<>();
-        JSONArray pluginArr = (JSONArray)globalConfig.get(PLUGINS);
+    private void parsePlugins(Snapshot loaded) {
+        List<Plugin> plugins = new ArrayList<>();
+        JSONArray pluginArr = (JSONArray) loaded.globalConfig.get(PLUGINS);
         pluginArr.forEach(pluginObj -> {
             JSONObject pluginJo = (JSONObject)pluginObj;
             Plugin plugin = new Plugin();
@@ -199,8 +261,15 @@ public class Config {
             plugin.setPassword(readString(pluginJo, PASSWORD));
             plugin.setUpdateIntervalSeconds(readInt(pluginJo, BACKEND_UPDATE_INTERVAL_SECONDS));
             plugin.setBrowserInstance(readString(pluginJo, BROWSER_INSTANCE));
+            plugin.setBrowserPoolSize(Math.max(1, readInt(pluginJo, BROWSER_POOL_SIZE)));
+            plugin.setDriverBackend(readString(pluginJo, DRIVER_BACKEND));
+            JSONArray blockedHostsArr = (JSONArray) pluginJo.get(PROXY_BLOCKED_HOSTS);
+            if (blockedHostsArr != null) {
+                blockedHostsArr.forEach(blockedHost -> plugin.getBlockedHosts().add(blockedHost.toString()));
+            }
             plugins.add(plugin);
         });
+        loaded.plugins = plugins;
     }
 
     public static Plugin getPlugin(List<Plugin> plugins, Graph.Type type) {
@@ -217,19 +286,32 @@ public class Config {
     }
 
     public List<Plugin> getPlugins() {
-        return plugins;
+        return snapshot.plugins;
     }
 
     public Plugin getPlugin(Graph.Type type) {
-        return getPlugin(plugins, type);
+        return getPlugin(snapshot.plugins, type);
     }
 
     public String getString(String key) {
-        return readString(globalConfig, key);
+        return readString(snapshot.globalConfig, key);
     }
 
     public int getInt(String key) {
-        return readInt(globalConfig, key);
+        return readInt(snapshot.globalConfig, key);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Integer value = readInteger(snapshot.globalConfig, key);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = snapshot.globalConfig.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.toString());
     }
 
     public static String readString(JSONObject jsonObject, String key) {
@@ -258,7 +340,7 @@ public class Config {
 
 
     public List<Dashboard> getDashboards() {
-        return dashboards;
+        return snapshot.dashboards;
     }
 
     public List<String> getDashboardIds() {
@@ -275,32 +357,33 @@ public class Config {
 
     public String getTSLastUpdate() {
         // Combination of global last modified and dashboards last modified.
-        return globalConfigFileLastModifiedOnDisk + "-" + dashboardConfigLastModified;
+        Snapshot current = snapshot;
+        return current.globalConfigFileLastModifiedOnDisk + "-" + current.dashboardConfigLastModified;
     }
 
     public JSONObject getGlobalConfig() {
-        return globalConfig;
+        return snapshot.globalConfig;
     }
 
     public JSONObject getDashboardsConfig() {
         // Trigger check for config update to make sure that the config we fetch is up to date.
         Config.getInstance().checkForConfigUpdate();
-        return dashboardsConfig;
+        return snapshot.dashboardsConfig;
     }
 
     public void updateDashboardsConfig(String dashboardsConfig, String tsPreviousUpdate) {
-        dashboardConfigStore.updateConfig(dashboardsConfig, tsPreviousUpdate);
+        snapshot.dashboardConfigStore.updateConfig(dashboardsConfig, tsPreviousUpdate);
 
         // Trigger check for config update to make sure that the config in memory is up to date.
         Config.getInstance().checkForConfigUpdate();
     }
 
     public String getDashboardConfigLastModified() {
-        return dashboardConfigLastModified;
+        return snapshot.dashboardConfigLastModified;
     }
 
     public List<String> getBrowserInstances() {
-        JSONArray browserInstances = (JSONArray) globalConfig.get("browserInstances");
+        JSONArray browserInstances = (JSONArray) snapshot.globalConfig.get("browserInstances");
         return (List<String>)browserInstances.stream().collect(toList());
     }
 
@@ -309,9 +392,23 @@ public class Config {
     }
 
     public List<Graph> getGrapsForType(Graph.Type graphType) {
-        return dashboards.stream().flatMap(dashboards -> dashboards.getGraphs().stream())
+        return snapshot.dashboards.stream().flatMap(dashboards -> dashboards.getGraphs().stream())
                 .filter(graph -> graph.getType().equals(graphType)).collect(toList());
 
     }
 
+    /**
+     * The config as read from the config stores in one go.
+     */
+    private static class Snapshot {
+        private JSONObject globalConfig;
+        private JSONObject dashboardsConfig;
+        private List<Dashboard> dashboards;
+        private List<Plugin> plugins;
+        private DashboardConfigPersistenceType dashboardConfigPersistenceType;
+        private DashboardConfig dashboardConfigStore;
+        private String globalConfigFileLastModifiedOnDisk;
+        private String dashboardConfigLastModified;
+    }
+
 }
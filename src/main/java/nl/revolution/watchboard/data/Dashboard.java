@@ -21,6 +21,7 @@ public class Dashboard {
     public static final String TIME_RANGE = "timeRange";
     public static final String URL = "url";
     public static final String COMPONENTS = "components";
+    public static final String REFRESH_SECONDS = "refreshSeconds";
     public static final String EXTENSION_PNG = ".png";
 
     private static final List<String> REQUIRED_CONFIG_KEYS_DASHBOARD = Arrays.asList(Config.ID, Config.TITLE, GRAPHS);
@@ -137,6 +138,7 @@ public class Dashboard {
                 graph.setBrowserWidth(Config.readInt(graphObj, BROWSER_WIDTH));
                 graph.setBrowserHeight(Config.readInt(graphObj, BROWSER_HEIGHT));
                 graph.setTimeRange(Config.readInt(graphObj, TIME_RANGE));
+                graph.setRefreshSeconds(Config.readInteger(graphObj, REFRESH_SECONDS));
                 graph.setImagePath(tempPath + "/" + Config.readString(graphObj, Config.ID).toString() + EXTENSION_PNG);
 
                 Object componentsObj = graphObj.get(COMPONENTS);
@@ -53,6 +53,7 @@ public class Graph {
     private int browserHeight;
     private int timeRange;
     private List<String> components;
+    private Integer refreshSeconds;
 
     public JSONObject toJSON(String contextRoot) {
         JSONObject json = new JSONObject();
@@ -130,6 +131,14 @@ public class Graph {
         this.components = components;
     }
 
+    public Integer getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public void setRefreshSeconds(Integer refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+
     public int getTimeRange() {
         return timeRange;
     }
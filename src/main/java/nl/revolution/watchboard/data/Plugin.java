@@ -1,6 +1,8 @@
 package nl.revolution.watchboard.data;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Plugin {
 
@@ -12,6 +14,9 @@ public class Plugin {
     private LocalDateTime tsLastUpdated;
 
     private String browserInstance;
+    private int browserPoolSize;
+    private List<String> blockedHosts = new ArrayList<>();
+    private String driverBackend;
 
     public Graph.Type getType() {
         return type;
@@ -69,6 +74,36 @@ public class Plugin {
         this.browserInstance = browserInstance;
     }
 
+    public int getBrowserPoolSize() {
+        return browserPoolSize;
+    }
+
+    public void setBrowserPoolSize(int browserPoolSize) {
+        this.browserPoolSize = browserPoolSize;
+    }
+
+    /**
+     * @return hosts (including their subdomains) the browsers of this plugin may not connect to
+     */
+    public List<String> getBlockedHosts() {
+        return blockedHosts;
+    }
+
+    public void setBlockedHosts(List<String> blockedHosts) {
+        this.blockedHosts = blockedHosts;
+    }
+
+    /**
+     * @return name of the browser backend for this plugin, or null for the global default
+     */
+    public String getDriverBackend() {
+        return driverBackend;
+    }
+
+    public void setDriverBackend(String driverBackend) {
+        this.driverBackend = driverBackend;
+    }
+
     public String toString() {
         return type.name();
     }
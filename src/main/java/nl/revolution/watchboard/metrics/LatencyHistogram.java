@@ -0,0 +1,72 @@
+package nl.revolution.watchboard.metrics;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Latency histogram with exponentially growing buckets (about 10% apart) from 1 ms up to one hour, so percentiles are
+ * accurate to roughly 10% at any scale with a fixed, small memory footprint.
+ */
+public class LatencyHistogram {
+
+    private static final double BUCKET_GROWTH = 1.1;
+    private static final long MAX_MILLIS = 60 * 60 * 1000;
+    private static final int BUCKETS = (int) Math.ceil(Math.log(MAX_MILLIS) / Math.log(BUCKET_GROWTH)) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    public synchronized void record(long millis) {
+        long value = Math.max(0, millis);
+        counts[bucketFor(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile (0-100), or 0 when nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(max, upperBound(bucket));
+            }
+        }
+        return max;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        json.put("mean", count == 0 ? 0 : sum / count);
+        json.put("p50", getPercentile(50));
+        json.put("p95", getPercentile(95));
+        json.put("p99", getPercentile(99));
+        json.put("max", max);
+        return json;
+    }
+
+    private static int bucketFor(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(millis) / Math.log(BUCKET_GROWTH)));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(BUCKET_GROWTH, bucket));
+    }
+
+}
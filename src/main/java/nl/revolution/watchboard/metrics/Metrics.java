@@ -0,0 +1,72 @@
+package nl.revolution.watchboard.metrics;
+
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory registry of counters, gauges and latency histograms, served as JSON by the metrics API. Names are dotted,
+ * e.g. 'capture.adaptive.unchanged.CLOUDWATCH'.
+ */
+public class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public long getCount(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public void record(String name, long millis) {
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(millis);
+    }
+
+    public LatencyHistogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public void gauge(String name, Supplier<Number> valueSupplier) {
+        gauges.put(name, valueSupplier);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject countersJo = new JSONObject();
+        counters.forEach((name, counter) -> countersJo.put(name, counter.get()));
+
+        JSONObject gaugesJo = new JSONObject();
+        gauges.forEach((name, valueSupplier) -> gaugesJo.put(name, valueSupplier.get()));
+
+        JSONObject histogramsJo = new JSONObject();
+        histograms.forEach((name, histogram) -> histogramsJo.put(name, histogram.toJSON()));
+
+        JSONObject json = new JSONObject();
+        json.put("counters", countersJo);
+        json.put("gauges", gaugesJo);
+        json.put("histograms", histogramsJo);
+        return json;
+    }
+
+}
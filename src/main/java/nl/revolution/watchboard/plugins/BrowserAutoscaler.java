@@ -0,0 +1,198 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.utils.ProcessStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Adds browsers on top of the configured browser instances when the scheduler falls behind, and retires them again
+ * after they have been idle for a while. Autoscaled browsers have no plugins of their own; they log in to whichever
+ * plugin has a backlog, like any idle browser does.
+ *
+ * The lag is how far the most overdue graph that could be captured right now is past its deadline. Graphs that wait
+ * for their circuit to close or that nobody is viewing don't count; more browsers would not capture those sooner.
+ *
+ * To prevent flapping, scaling up requires the lag to stay above the scale-up threshold for several checks in a row,
+ * scaling down requires it to be below a (lower) scale-down threshold, and no decision is taken within the cooldown
+ * period of the previous one. Browsers are only added while the host has enough free memory and CPU.
+ */
+public class BrowserAutoscaler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrowserAutoscaler.class);
+
+    private static final int DEFAULT_MAX_BROWSERS = 4;
+    private static final int DEFAULT_CHECK_INTERVAL_SECONDS = 15;
+    private static final int DEFAULT_SCALE_UP_LAG_SECONDS = 60;
+    private static final int DEFAULT_SCALE_DOWN_LAG_SECONDS = 10;
+    private static final int DEFAULT_SCALE_UP_AFTER_CHECKS = 3;
+    private static final int DEFAULT_SCALE_DOWN_IDLE_SECONDS = 600;
+    private static final int DEFAULT_COOLDOWN_SECONDS = 120;
+    private static final int DEFAULT_MIN_FREE_MEMORY_MB = 512;
+    private static final int DEFAULT_MAX_LOAD_PERCENT = 100;
+
+    enum Decision {
+        SCALE_UP, SCALE_DOWN, HOLD
+    }
+
+    private final CaptureScheduler scheduler;
+    private final Function<String, PluginUpdateThread> workerFactory;
+    private final Clock clock;
+    private final List<PluginUpdateThread> workers = Collections.synchronizedList(new ArrayList<>());
+    private ScheduledExecutorService executor;
+    private int workerCount;
+
+    private int maxBrowsers = DEFAULT_MAX_BROWSERS;
+    private int scaleUpLagSeconds = DEFAULT_SCALE_UP_LAG_SECONDS;
+    private int scaleDownLagSeconds = DEFAULT_SCALE_DOWN_LAG_SECONDS;
+    private int scaleUpAfterChecks = DEFAULT_SCALE_UP_AFTER_CHECKS;
+    private int scaleDownIdleSeconds = DEFAULT_SCALE_DOWN_IDLE_SECONDS;
+    private int cooldownSeconds = DEFAULT_COOLDOWN_SECONDS;
+    private int minFreeMemoryMb = DEFAULT_MIN_FREE_MEMORY_MB;
+    private int maxLoadPercent = DEFAULT_MAX_LOAD_PERCENT;
+
+    private int laggingChecks;
+    private long lastDecisionAt;
+
+    public BrowserAutoscaler(CaptureScheduler scheduler, Function<String, PluginUpdateThread> workerFactory, Clock clock) {
+        this.scheduler = scheduler;
+        this.workerFactory = workerFactory;
+        this.clock = clock;
+    }
+
+    public void start() {
+        int checkIntervalSeconds = Config.getInstance().getInt(Config.AUTOSCALER_CHECK_INTERVAL_SECONDS, DEFAULT_CHECK_INTERVAL_SECONDS);
+        LOG.info("Starting browser autoscaler, checking every {} seconds.", checkIntervalSeconds);
+        Metrics.getInstance().gauge("autoscaler.browsers", workers::size);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "browser-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        List<PluginUpdateThread> stopping;
+        synchronized (workers) {
+            stopping = new ArrayList<>(workers);
+            workers.clear();
+        }
+        stopping.forEach(this::stopWorker);
+    }
+
+    private void check() {
+        try {
+            readSettings();
+            long maxLagMillis = scheduler.getCaptureBacklogMillis();
+            PluginUpdateThread idleWorker = findIdleWorker();
+            long freeMemoryMb = ProcessStats.readMemAvailableKb() / 1024;
+
+            Decision decision = decide(maxLagMillis, idleWorker != null, freeMemoryMb, loadPercent());
+            if (decision == Decision.SCALE_UP) {
+                String name = "autoscale-" + ++workerCount;
+                LOG.info("Autoscaler: scheduler lag is {} seconds, adding browser '{}' ({} of max {}).",
+                        maxLagMillis / 1000, name, workers.size() + 1, maxBrowsers);
+                PluginUpdateThread worker = workerFactory.apply(name);
+                workers.add(worker);
+                worker.start();
+            } else if (decision == Decision.SCALE_DOWN) {
+                LOG.info("Autoscaler: scheduler lag is {} seconds and browser '{}' has been idle for {} seconds, retiring it.",
+                        maxLagMillis / 1000, idleWorker.getBrowserInstance(), idleWorker.getIdleMillis() / 1000);
+                workers.remove(idleWorker);
+                stopWorker(idleWorker);
+            }
+        } catch (Exception e) {
+            LOG.error("Error while running browser autoscaler: ", e);
+        }
+    }
+
+    Decision decide(long maxLagMillis, boolean idleWorkerAvailable, long freeMemoryMb, double loadPercent) {
+        long now = clock.millis();
+        laggingChecks = maxLagMillis > scaleUpLagSeconds * 1000L ? laggingChecks + 1 : 0;
+        if (now - lastDecisionAt < cooldownSeconds * 1000L) {
+            return Decision.HOLD;
+        }
+
+        if (laggingChecks >= scaleUpAfterChecks) {
+            if (workers.size() >= maxBrowsers) {
+                LOG.debug("Autoscaler: lag of {} seconds, but already at the maximum of {} browsers.", maxLagMillis / 1000, maxBrowsers);
+                return Decision.HOLD;
+            }
+            if (freeMemoryMb >= 0 && freeMemoryMb < minFreeMemoryMb) {
+                LOG.info("Autoscaler: lag of {} seconds, but only {} MB memory available (minimum {} MB); not adding a browser.",
+                        maxLagMillis / 1000, freeMemoryMb, minFreeMemoryMb);
+                return Decision.HOLD;
+            }
+            if (loadPercent >= 0 && loadPercent > maxLoadPercent) {
+                LOG.info("Autoscaler: lag of {} seconds, but load is at {}% of the available CPUs (maximum {}%); not adding a browser.",
+                        maxLagMillis / 1000, Math.round(loadPercent), maxLoadPercent);
+                return Decision.HOLD;
+            }
+            laggingChecks = 0;
+            lastDecisionAt = now;
+            return Decision.SCALE_UP;
+        }
+
+        if (idleWorkerAvailable && maxLagMillis < scaleDownLagSeconds * 1000L) {
+            lastDecisionAt = now;
+            return Decision.SCALE_DOWN;
+        }
+        return Decision.HOLD;
+    }
+
+    private PluginUpdateThread findIdleWorker() {
+        synchronized (workers) {
+            // Retire the most recently added browser first.
+            for (int i = workers.size() - 1; i >= 0; i--) {
+                if (workers.get(i).getIdleMillis() > scaleDownIdleSeconds * 1000L) {
+                    return workers.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private double loadPercent() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double loadAverage = os.getSystemLoadAverage();
+        return loadAverage < 0 ? -1 : 100 * loadAverage / os.getAvailableProcessors();
+    }
+
+    private void readSettings() {
+        Config config = Config.getInstance();
+        maxBrowsers = config.getInt(Config.AUTOSCALER_MAX_BROWSERS, DEFAULT_MAX_BROWSERS);
+        scaleUpLagSeconds = config.getInt(Config.AUTOSCALER_SCALE_UP_LAG_SECONDS, DEFAULT_SCALE_UP_LAG_SECONDS);
+        scaleDownLagSeconds = config.getInt(Config.AUTOSCALER_SCALE_DOWN_LAG_SECONDS, DEFAULT_SCALE_DOWN_LAG_SECONDS);
+        scaleUpAfterChecks = config.getInt(Config.AUTOSCALER_SCALE_UP_AFTER_CHECKS, DEFAULT_SCALE_UP_AFTER_CHECKS);
+        scaleDownIdleSeconds = config.getInt(Config.AUTOSCALER_SCALE_DOWN_IDLE_SECONDS, DEFAULT_SCALE_DOWN_IDLE_SECONDS);
+        cooldownSeconds = config.getInt(Config.AUTOSCALER_COOLDOWN_SECONDS, DEFAULT_COOLDOWN_SECONDS);
+        minFreeMemoryMb = config.getInt(Config.AUTOSCALER_MIN_FREE_MEMORY_MB, DEFAULT_MIN_FREE_MEMORY_MB);
+        maxLoadPercent = config.getInt(Config.AUTOSCALER_MAX_LOAD_PERCENT, DEFAULT_MAX_LOAD_PERCENT);
+    }
+
+    private void stopWorker(PluginUpdateThread worker) {
+        worker.doStop();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted while stopping browser '" + worker.getBrowserInstance() + "': ", e);
+        }
+    }
+
+}
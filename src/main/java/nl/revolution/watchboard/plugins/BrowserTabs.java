@@ -0,0 +1,94 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.utils.WebDriverUtils;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Spare windows of a single browser, in which the next graphs are loaded while the current one is being captured.
+ * The windows share cookies and cache with the main window, so they need no login of their own, and cost a lot less
+ * memory than another browser process.
+ *
+ * WebDriver commands always go to one window at a time; pages in the other windows keep loading in the meantime.
+ */
+class BrowserTabs {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrowserTabs.class);
+
+    private final WebDriverWrapper wrappedDriver;
+    private final String mainTab;
+    private final Deque<String> spareTabs = new ArrayDeque<>();
+    private final Map<CaptureJob, String> tabsByJob = new IdentityHashMap<>();
+
+    BrowserTabs(WebDriverWrapper wrappedDriver, int count) {
+        this.wrappedDriver = wrappedDriver;
+        WebDriver driver = wrappedDriver.getDriver();
+        mainTab = driver.getWindowHandle();
+        for (int i = 1; i < count; i++) {
+            ((JavascriptExecutor) driver).executeScript("window.open('about:blank');");
+        }
+        driver.getWindowHandles().stream().filter(handle -> !handle.equals(mainTab)).forEach(spareTabs::add);
+        driver.switchTo().window(mainTab);
+        LOG.info("Opened {} spare tabs.", spareTabs.size());
+    }
+
+    boolean belongsTo(WebDriverWrapper driver) {
+        return wrappedDriver == driver;
+    }
+
+    boolean hasSpareTab() {
+        return !spareTabs.isEmpty();
+    }
+
+    /**
+     * Starts loading the url in a spare tab, without waiting for the page to finish loading.
+     */
+    void preload(CaptureJob job, String url) {
+        String tab = spareTabs.poll();
+        WebDriver driver = wrappedDriver.getDriver();
+        try {
+            driver.switchTo().window(tab);
+            WebDriverUtils.fetchDummyPage(driver);
+            WebDriverUtils.disableTimeouts(driver);
+            try {
+                driver.get(url);
+            } catch (TimeoutException ignored) {
+                // Expected, the page continues loading in the background.
+            }
+        } catch (RuntimeException e) {
+            spareTabs.add(tab);
+            throw e;
+        } finally {
+            WebDriverUtils.enableTimeouts(driver);
+        }
+        tabsByJob.put(job, tab);
+    }
+
+    /**
+     * Switches to the tab the job was preloaded in, or to the main tab.
+     *
+     * @return whether the job was preloaded
+     */
+    boolean activate(CaptureJob job) {
+        String tab = tabsByJob.get(job);
+        wrappedDriver.getDriver().switchTo().window(tab == null ? mainTab : tab);
+        return tab != null;
+    }
+
+    void release(CaptureJob job) {
+        String tab = tabsByJob.remove(job);
+        if (tab != null) {
+            spareTabs.add(tab);
+        }
+    }
+
+}
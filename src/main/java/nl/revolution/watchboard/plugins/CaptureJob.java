@@ -0,0 +1,248 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.metrics.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single graph capture as tracked by the {@link CaptureScheduler}. The scheduler owns all mutable state;
+ * workers only read the graph and type of the job they were handed.
+ */
+public class CaptureJob {
+
+    private final String captureKey;
+    private final Graph.Type type;
+    private String id;
+    private Graph graph;
+    private List<Graph> duplicates = Collections.emptyList();
+    private int intervalSeconds;
+    private long registeredAt;
+    private long lastPublishedAt;
+    private long deadline;
+    private long captureStartedAt;
+    private boolean inFlight;
+    private long imageChecksum;
+    private int backoffMultiplier = 1;
+    private int unchangedCaptures;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final LatencyHistogram latency;
+    private final Map<String, LatencyHistogram> phaseLatency;
+    private final Map<String, LatencyHistogram> commandLatency;
+
+    // Hedging: a hedge is a second attempt at the same capture, rendered into its own file by another browser.
+    private final CaptureJob hedgedJob;
+    private CaptureJob hedge;
+    private boolean primaryFailed;
+    private boolean awaitingPrimary;
+    private volatile boolean cancelled;
+
+    CaptureJob(String captureKey, Graph graph, int intervalSeconds, long registeredAt, long lastPublishedAt) {
+        this.captureKey = captureKey;
+        this.id = graph.getId();
+        this.type = graph.getType();
+        this.graph = graph;
+        this.intervalSeconds = intervalSeconds;
+        this.registeredAt = registeredAt;
+        this.lastPublishedAt = lastPublishedAt;
+
+        // Initial ordering is by staleness: the oldest image (or a missing one) is captured first.
+        this.deadline = lastPublishedAt;
+        this.hedgedJob = null;
+        this.latency = new LatencyHistogram();
+        this.phaseLatency = new ConcurrentHashMap<>();
+        this.commandLatency = new ConcurrentHashMap<>();
+    }
+
+    private CaptureJob(CaptureJob hedgedJob, Graph hedgeGraph, long startedAt) {
+        this.captureKey = hedgedJob.captureKey;
+        this.type = hedgedJob.type;
+        this.id = hedgedJob.id;
+        this.graph = hedgeGraph;
+        this.hedgedJob = hedgedJob;
+        this.latency = hedgedJob.latency;
+        this.phaseLatency = hedgedJob.phaseLatency;
+        this.commandLatency = hedgedJob.commandLatency;
+        this.intervalSeconds = hedgedJob.intervalSeconds;
+        this.registeredAt = startedAt;
+        this.captureStartedAt = startedAt;
+        this.inFlight = true;
+    }
+
+    CaptureJob createHedge(Graph hedgeGraph, long startedAt) {
+        return new CaptureJob(this, hedgeGraph, startedAt);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Graph.Type getType() {
+        return type;
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    void setGraph(Graph graph) {
+        this.graph = graph;
+        this.id = graph.getId();
+    }
+
+    public String getCaptureKey() {
+        return captureKey;
+    }
+
+    /**
+     * Other graphs with the same capture key; they get a copy of the image captured for {@link #getGraph()}.
+     */
+    public List<Graph> getDuplicates() {
+        return duplicates;
+    }
+
+    void setDuplicates(List<Graph> duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public long getLastPublishedAt() {
+        return lastPublishedAt;
+    }
+
+    void setLastPublishedAt(long lastPublishedAt) {
+        this.lastPublishedAt = lastPublishedAt;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    long getCaptureStartedAt() {
+        return captureStartedAt;
+    }
+
+    void setCaptureStartedAt(long captureStartedAt) {
+        this.captureStartedAt = captureStartedAt;
+    }
+
+    public boolean isInFlight() {
+        return inFlight;
+    }
+
+    void setInFlight(boolean inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    long getImageChecksum() {
+        return imageChecksum;
+    }
+
+    void setImageChecksum(long imageChecksum) {
+        this.imageChecksum = imageChecksum;
+    }
+
+    public int getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    void setBackoffMultiplier(int backoffMultiplier) {
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    public int getUnchangedCaptures() {
+        return unchangedCaptures;
+    }
+
+    void setUnchangedCaptures(int unchangedCaptures) {
+        this.unchangedCaptures = unchangedCaptures;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Capture times per phase, as marked by the plugin; the source for the timeouts of those phases.
+     */
+    public Map<String, LatencyHistogram> getPhaseLatency() {
+        return phaseLatency;
+    }
+
+    /**
+     * Latency of the WebDriver commands sent while capturing this graph, per type of command.
+     */
+    public Map<String, LatencyHistogram> getCommandLatency() {
+        return commandLatency;
+    }
+
+    /**
+     * @return the job this is a hedge attempt for, or null if this is a regular job
+     */
+    public CaptureJob getHedgedJob() {
+        return hedgedJob;
+    }
+
+    CaptureJob getHedge() {
+        return hedge;
+    }
+
+    void setHedge(CaptureJob hedge) {
+        this.hedge = hedge;
+    }
+
+    boolean isPrimaryFailed() {
+        return primaryFailed;
+    }
+
+    void setPrimaryFailed(boolean primaryFailed) {
+        this.primaryFailed = primaryFailed;
+    }
+
+    boolean isAwaitingPrimary() {
+        return awaitingPrimary;
+    }
+
+    void setAwaitingPrimary(boolean awaitingPrimary) {
+        this.awaitingPrimary = awaitingPrimary;
+    }
+
+    /**
+     * Set when another attempt at the same capture finished first; the capture should stop at its next wait.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * How far behind this graph is relative to its target interval, in milliseconds. A graph that has never been
+     * captured is measured from the moment it was registered with the scheduler.
+     */
+    public long getLagMillis(long now, int targetIntervalSeconds) {
+        long due = lastPublishedAt > 0 ? lastPublishedAt + targetIntervalSeconds * 1000L : registeredAt;
+        return Math.max(0, now - due);
+    }
+
+}
@@ -0,0 +1,1062 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.utils.RetryPolicy;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a deadline-ordered queue of capture jobs per graph type. Each graph is due again one interval after its
+ * previous capture started; the interval is the graph's own 'refreshSeconds' or, when absent, the
+ * 'backendUpdateIntervalSeconds' of its plugin.
+ *
+ * Due jobs move to a ready deque that is shared by all browsers. Browsers take work for their home plugin types from
+ * the head of the deque. Once those are drained, they steal from the tail of the deques of other types: right away
+ * for types they already hold a session for, and otherwise only when that type is backlogged.
+ *
+ * When demand-driven capture is enabled, graphs that are not on a dashboard someone is watching fall back to a slow
+ * background interval. As soon as a client opens a dashboard, its stale graphs are moved to the front of the queue.
+ *
+ * With adaptive intervals enabled, the interval of a graph doubles (up to a maximum) for every capture that produced
+ * an identical image, and snaps back to the base interval as soon as the image changes.
+ *
+ * Graphs that render the same image (same type, url, browser dimensions, time range and components) share a single
+ * job, keyed by their capture key: the image is captured once for the first graph and published to the others.
+ *
+ * With hedging enabled, a capture that runs longer than the p95 of its own capture times gets a second attempt on an
+ * idle browser that already holds a session for the plugin. Whichever attempt finishes first is published and the
+ * other one is cancelled. The number of concurrent hedges and their share of all captures are capped.
+ *
+ * Failures are tracked per graph with a {@link CircuitBreaker}: after a number of consecutive failures a graph is
+ * backed off exponentially (with jitter) before a single probe capture is attempted.
+ *
+ * A refresh can be requested for a graph through the API. The job then moves to a priority lane that browsers take
+ * from before any scheduled work. Requests for a job that is already in the lane or being captured share that
+ * capture, and the number of refreshes that can jump the queue is limited per minute, so regular captures are never
+ * starved.
+ */
+public class CaptureScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaptureScheduler.class);
+    private static final long CONFIG_CHECK_INTERVAL_MS = 10 * 1000;
+    private static final int DEFAULT_STEAL_THRESHOLD = 2;
+    private static final int DEFAULT_STEAL_AFTER_SECONDS = 30;
+    private static final int DEFAULT_BACKGROUND_INTERVAL_SECONDS = 600;
+    private static final int DEFAULT_VIEWER_TIMEOUT_SECONDS = 120;
+    private static final int DEFAULT_ADAPTIVE_MAX_INTERVAL_SECONDS = 900;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 3;
+    private static final int DEFAULT_CIRCUIT_BASE_BACKOFF_SECONDS = 30;
+    private static final int DEFAULT_CIRCUIT_MAX_BACKOFF_SECONDS = 900;
+    private static final int DEFAULT_HEDGING_MAX_CONCURRENT = 2;
+    private static final int DEFAULT_HEDGING_BUDGET_PERCENT = 5;
+    private static final int HEDGING_MIN_SAMPLES = 10;
+    private static final int DEFAULT_REFRESH_MAX_PER_MINUTE = 10;
+    private static final long REFRESH_WINDOW_MILLIS = 60 * 1000;
+    private static final String HEDGE_SUFFIX = ".hedge.png";
+    private static final Comparator<CaptureJob> BY_DEADLINE = Comparator.comparingLong(CaptureJob::getDeadline);
+
+    private static CaptureScheduler instance;
+
+    private final Clock clock;
+    private final Map<String, CaptureJob> jobs = new LinkedHashMap<>();
+    private final Map<String, String> captureKeysByGraph = new HashMap<>();
+    private final Map<Graph.Type, CaptureQueue> queues = new EnumMap<>(Graph.Type.class);
+    private final Map<String, List<String>> graphIdsByDashboard = new LinkedHashMap<>();
+    private final Map<String, List<String>> dashboardIdsByGraph = new HashMap<>();
+    private final ViewerTracker viewers = new ViewerTracker(DEFAULT_VIEWER_TIMEOUT_SECONDS * 1000L);
+    // Per browser instance, the types it is logging in to; other browsers don't log in to those to steal work.
+    private final Map<String, Set<Graph.Type>> startingSessions = new HashMap<>();
+    private long tsLastConfigCheck;
+    private int stealThreshold = DEFAULT_STEAL_THRESHOLD;
+    private long stealAfterMillis = DEFAULT_STEAL_AFTER_SECONDS * 1000L;
+    private boolean demandDriven;
+    private int backgroundIntervalSeconds = DEFAULT_BACKGROUND_INTERVAL_SECONDS;
+    private boolean adaptive;
+    private int adaptiveMaxIntervalSeconds = DEFAULT_ADAPTIVE_MAX_INTERVAL_SECONDS;
+    private int circuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+    private int circuitBaseBackoffSeconds = DEFAULT_CIRCUIT_BASE_BACKOFF_SECONDS;
+    private int circuitMaxBackoffSeconds = DEFAULT_CIRCUIT_MAX_BACKOFF_SECONDS;
+    private boolean hedging;
+    private int hedgingMaxConcurrent = DEFAULT_HEDGING_MAX_CONCURRENT;
+    private int hedgingBudgetPercent = DEFAULT_HEDGING_BUDGET_PERCENT;
+    private int runningHedges;
+    private long capturesStarted;
+    private long hedgesStarted;
+    private int refreshMaxPerMinute = DEFAULT_REFRESH_MAX_PER_MINUTE;
+    private final Deque<Long> recentRefreshes = new ArrayDeque<>();
+    private final Map<CaptureJob, List<CompletableFuture<Boolean>>> refreshWaiters = new IdentityHashMap<>();
+    // Refreshes requested while an older capture was running; they get a capture of their own once it completes.
+    private final Map<CaptureJob, List<CompletableFuture<Boolean>>> pendingRefreshes = new IdentityHashMap<>();
+
+    public enum RefreshStatus {
+        QUEUED, COALESCED, RATE_LIMITED, NOT_FOUND
+    }
+
+    public static synchronized CaptureScheduler getInstance() {
+        if (instance == null) {
+            instance = new CaptureScheduler(Clock.systemDefaultZone());
+        }
+        return instance;
+    }
+
+    public CaptureScheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Checks for a config update (at most once every few seconds) and brings the set of jobs in line with the
+     * configured graphs.
+     */
+    public void refreshFromConfig() {
+        synchronized (this) {
+            long now = clock.millis();
+            if (now - tsLastConfigCheck < CONFIG_CHECK_INTERVAL_MS) {
+                return;
+            }
+            tsLastConfigCheck = now;
+        }
+
+        Config.getInstance().checkForConfigUpdate();
+        synchronized (this) {
+            stealThreshold = Config.getInstance().getInt(Config.SCHEDULER_STEAL_THRESHOLD, DEFAULT_STEAL_THRESHOLD);
+            stealAfterMillis = Config.getInstance().getInt(Config.SCHEDULER_STEAL_AFTER_SECONDS, DEFAULT_STEAL_AFTER_SECONDS) * 1000L;
+            setDemandDriven(Config.getInstance().getBoolean(Config.SCHEDULER_DEMAND_DRIVEN_ENABLED, false),
+                    Config.getInstance().getInt(Config.SCHEDULER_BACKGROUND_INTERVAL_SECONDS, DEFAULT_BACKGROUND_INTERVAL_SECONDS),
+                    Config.getInstance().getInt(Config.SCHEDULER_VIEWER_TIMEOUT_SECONDS, DEFAULT_VIEWER_TIMEOUT_SECONDS));
+            setAdaptive(Config.getInstance().getBoolean(Config.SCHEDULER_ADAPTIVE_ENABLED, false),
+                    Config.getInstance().getInt(Config.SCHEDULER_ADAPTIVE_MAX_INTERVAL_SECONDS, DEFAULT_ADAPTIVE_MAX_INTERVAL_SECONDS));
+            setCircuitBreaker(Config.getInstance().getInt(Config.SCHEDULER_CIRCUIT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+                    Config.getInstance().getInt(Config.SCHEDULER_CIRCUIT_BASE_BACKOFF_SECONDS, DEFAULT_CIRCUIT_BASE_BACKOFF_SECONDS),
+                    Config.getInstance().getInt(Config.SCHEDULER_CIRCUIT_MAX_BACKOFF_SECONDS, DEFAULT_CIRCUIT_MAX_BACKOFF_SECONDS));
+            setHedging(Config.getInstance().getBoolean(Config.SCHEDULER_HEDGING_ENABLED, false),
+                    Config.getInstance().getInt(Config.SCHEDULER_HEDGING_MAX_CONCURRENT, DEFAULT_HEDGING_MAX_CONCURRENT),
+                    Config.getInstance().getInt(Config.SCHEDULER_HEDGING_BUDGET_PERCENT, DEFAULT_HEDGING_BUDGET_PERCENT));
+            refreshMaxPerMinute = Config.getInstance().getInt(Config.SCHEDULER_REFRESH_MAX_PER_MINUTE, DEFAULT_REFRESH_MAX_PER_MINUTE);
+        }
+        synchronize(Config.getInstance().getDashboards(), Config.getInstance().getPlugins());
+    }
+
+    public synchronized void setDemandDriven(boolean enabled, int backgroundIntervalSeconds, int viewerTimeoutSeconds) {
+        if (enabled != demandDriven) {
+            LOG.info("Demand-driven capture {}.", enabled ? "enabled" : "disabled");
+        }
+        this.demandDriven = enabled;
+        this.backgroundIntervalSeconds = backgroundIntervalSeconds;
+        viewers.setViewerTimeoutMillis(viewerTimeoutSeconds * 1000L);
+    }
+
+    public synchronized void setAdaptive(boolean enabled, int maxIntervalSeconds) {
+        if (enabled != adaptive) {
+            LOG.info("Adaptive capture intervals {}.", enabled ? "enabled" : "disabled");
+        }
+        this.adaptive = enabled;
+        this.adaptiveMaxIntervalSeconds = maxIntervalSeconds;
+    }
+
+    public synchronized void setCircuitBreaker(int failureThreshold, int baseBackoffSeconds, int maxBackoffSeconds) {
+        this.circuitFailureThreshold = Math.max(1, failureThreshold);
+        this.circuitBaseBackoffSeconds = baseBackoffSeconds;
+        this.circuitMaxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    public synchronized void setHedging(boolean enabled, int maxConcurrent, int budgetPercent) {
+        if (enabled != hedging) {
+            LOG.info("Hedged captures {}.", enabled ? "enabled" : "disabled");
+        }
+        this.hedging = enabled;
+        this.hedgingMaxConcurrent = maxConcurrent;
+        this.hedgingBudgetPercent = budgetPercent;
+    }
+
+    public synchronized void setRefreshLimit(int maxPerMinute) {
+        this.refreshMaxPerMinute = maxPerMinute;
+    }
+
+    public synchronized void synchronize(List<Dashboard> dashboards, List<Plugin> plugins) {
+        long now = clock.millis();
+
+        graphIdsByDashboard.clear();
+        dashboardIdsByGraph.clear();
+        dashboards.forEach(dashboard -> dashboard.getGraphs().forEach(graph -> {
+            graphIdsByDashboard.computeIfAbsent(dashboard.getId(), id -> new ArrayList<>()).add(graph.getId());
+            dashboardIdsByGraph.computeIfAbsent(graph.getId(), id -> new ArrayList<>()).add(dashboard.getId());
+        }));
+
+        // Graphs are identified by id, since the id determines the image file. Graphs of type 'disk' are never captured,
+        // neither are graphs without a configured plugin to log in with.
+        Map<String, Graph> graphs = new LinkedHashMap<>();
+        dashboards.stream().flatMap(dashboard -> dashboard.getGraphs().stream())
+                .filter(graph -> graph.getType() != null && graph.getType() != Graph.Type.DISK)
+                .filter(graph -> Config.getPlugin(plugins, graph.getType()) != null)
+                .forEach(graph -> graphs.putIfAbsent(graph.getId(), graph));
+
+        Map<String, List<Graph>> graphsByCaptureKey = new LinkedHashMap<>();
+        captureKeysByGraph.clear();
+        graphs.values().forEach(graph -> {
+            String captureKey = captureKey(graph);
+            graphsByCaptureKey.computeIfAbsent(captureKey, key -> new ArrayList<>()).add(graph);
+            captureKeysByGraph.put(graph.getId(), captureKey);
+        });
+
+        Iterator<CaptureJob> jobIterator = jobs.values().iterator();
+        while (jobIterator.hasNext()) {
+            CaptureJob job = jobIterator.next();
+            if (!graphsByCaptureKey.containsKey(job.getCaptureKey())) {
+                LOG.info("Graph '{}' is no longer configured as {}, removing it from the schedule.", job.getId(), job.getType());
+                queueFor(job.getType()).remove(job);
+                jobIterator.remove();
+                completeRefreshes(job, false);
+                completePendingRefreshes(job);
+            }
+        }
+
+        int duplicates = 0;
+        for (Map.Entry<String, List<Graph>> entry : graphsByCaptureKey.entrySet()) {
+            List<Graph> group = entry.getValue();
+            Graph graph = group.get(0);
+            List<Graph> duplicateGraphs = new ArrayList<>(group.subList(1, group.size()));
+            duplicates += duplicateGraphs.size();
+
+            // A shared capture is refreshed as often as its most demanding graph asks for.
+            int intervalSeconds = group.stream().mapToInt(member -> determineIntervalSeconds(member, plugins)).min().getAsInt();
+            CaptureJob job = jobs.get(entry.getKey());
+            if (job == null) {
+                job = new CaptureJob(entry.getKey(), graph, intervalSeconds, now, new File(graph.getImagePath()).lastModified());
+                job.setDuplicates(duplicateGraphs);
+                jobs.put(entry.getKey(), job);
+                queueFor(job.getType()).add(job);
+                continue;
+            }
+
+            if (!job.isInFlight()) {
+                // An in-flight job keeps its graphs until it completes; they are updated on the next synchronize.
+                job.setGraph(graph);
+                job.setDuplicates(duplicateGraphs);
+            }
+            if (job.getIntervalSeconds() != intervalSeconds) {
+                LOG.info("Interval for graph '{}' changed from {} to {} seconds.", job.getId(), job.getIntervalSeconds(), intervalSeconds);
+                job.setIntervalSeconds(intervalSeconds);
+                if (!job.isInFlight() && job.getCaptureStartedAt() > 0) {
+                    // A job with refreshes waiting for it goes back to the priority lane.
+                    queueFor(job.getType()).remove(job);
+                    job.setDeadline(job.getCaptureStartedAt() + intervalSeconds * 1000L);
+                    reschedule(job);
+                }
+            }
+        }
+        final int sharedGraphs = duplicates;
+        Metrics.getInstance().gauge("capture.dedup.sharedGraphs", () -> sharedGraphs);
+
+        notifyAll();
+    }
+
+    /**
+     * Hands out the next job for a browser, waiting up to maxWaitMillis for one to become available. Returns null when
+     * nothing became available in time.
+     *
+     * Only jobs of types whose session is ready are handed out, so a browser that is still logging in waits instead
+     * of taking jobs it would have to give back. Jobs of a type the browser holds no session for at all are only
+     * stolen (which costs a login) by a browser whose own sessions are all ready, and only if no other browser is
+     * logging in to that type already.
+     *
+     * @param homeTypes the plugin types pinned to the browser in the config
+     * @param sessionTypes the plugin types the browser currently holds a session for, ready or not
+     * @param isReady whether the session of the browser for a type is logged in; checked again on every wake-up
+     */
+    public synchronized CaptureJob takeNextJob(Collection<Graph.Type> homeTypes, Collection<Graph.Type> sessionTypes,
+                                               Predicate<Graph.Type> isReady, long maxWaitMillis) throws InterruptedException {
+        long waitUntil = clock.millis() + maxWaitMillis;
+        while (true) {
+            long now = clock.millis();
+            queues.values().forEach(queue -> queue.promoteDueJobs(now));
+
+            CaptureJob next = takePriority(isReady);
+            if (next == null) {
+                next = takeFromHomeTypes(homeTypes, isReady);
+            }
+            if (next == null) {
+                next = steal(homeTypes, sessionTypes, isReady, now);
+            }
+            if (next == null && hedging) {
+                CaptureJob hedge = hedge(isReady, now);
+                if (hedge != null) {
+                    return hedge;
+                }
+            }
+            if (next != null) {
+                markStarted(next, now);
+                return next;
+            }
+
+            if (now >= waitUntil) {
+                return null;
+            }
+            long wakeUp = queues.values().stream().mapToLong(CaptureQueue::nextWakeUp).min().orElse(waitUntil);
+            wait(Math.max(1, Math.min(waitUntil, wakeUp) - now));
+        }
+    }
+
+    public synchronized CaptureJob takeNextJob(Collection<Graph.Type> homeTypes, Collection<Graph.Type> sessionTypes,
+                                               long maxWaitMillis) throws InterruptedException {
+        return takeNextJob(homeTypes, sessionTypes, type -> homeTypes.contains(type) || sessionTypes.contains(type), maxWaitMillis);
+    }
+
+    public synchronized CaptureJob takeNextJob(Collection<Graph.Type> types, long maxWaitMillis) throws InterruptedException {
+        return takeNextJob(types, types, maxWaitMillis);
+    }
+
+    /**
+     * Registers the types a browser is logging in to (or recovering a session for).
+     */
+    public synchronized void reportStartingSessions(String browserInstance, Set<Graph.Type> types) {
+        if (types.isEmpty()) {
+            startingSessions.remove(browserInstance);
+        } else {
+            startingSessions.put(browserInstance, types);
+        }
+    }
+
+    /**
+     * Wakes up browsers waiting for a job, e.g. because one of their sessions has just become ready.
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Hands out the most urgent job of the given type that is due now, without waiting, stealing or hedging. Used by
+     * browsers that load the next graph in a spare tab while capturing the current one.
+     */
+    public synchronized CaptureJob pollDueJob(Graph.Type type) {
+        long now = clock.millis();
+        CaptureQueue queue = queueFor(type);
+        queue.promoteDueJobs(now);
+        CaptureJob next = queue.priority.isEmpty() ? queue.ready.pollFirst() : queue.priority.pollFirst();
+        if (next != null) {
+            markStarted(next, now);
+            // The browser only gets to a preloaded job after the capture it is busy with.
+            next.setCaptureStartedAt(0);
+        }
+        return next;
+    }
+
+    /**
+     * Called by the worker when the browser actually starts on the job. Capture latency, hedging and the next deadline
+     * count from here rather than from when the job was handed out, which for preloaded jobs can be a capture earlier.
+     */
+    public synchronized void captureStarted(CaptureJob job) {
+        job.setCaptureStartedAt(clock.millis());
+    }
+
+    /**
+     * Returns a job that was handed out but never captured, e.g. because its browser stopped.
+     */
+    public void release(CaptureJob job) {
+        if (job.getHedgedJob() != null) {
+            // A hedge attempt that never ran simply lost; the regular attempt is still running.
+            jobCompleted(job, false);
+            return;
+        }
+        requeue(job);
+    }
+
+    private synchronized void requeue(CaptureJob job) {
+        // The attempt never ran, so a hedge of it is dropped too; one that already won doesn't wait for it anymore.
+        CaptureJob hedge = job.getHedge();
+        if (hedge != null) {
+            hedge.setCancelled(true);
+            job.setHedge(null);
+            runningHedges--;
+        }
+        job.setAwaitingPrimary(false);
+        job.setInFlight(false);
+        capturesStarted--;
+        reschedule(job);
+        notifyAll();
+    }
+
+    /**
+     * Puts a job that is no longer in flight back in its queue, in the priority lane if a refresh is waiting for it.
+     * A job whose graph was removed from the config while it was in flight is dropped.
+     */
+    private void reschedule(CaptureJob job) {
+        if (jobs.get(job.getCaptureKey()) != job) {
+            completeRefreshes(job, false);
+            completePendingRefreshes(job);
+            return;
+        }
+        List<CompletableFuture<Boolean>> pending = pendingRefreshes.remove(job);
+        if (pending != null) {
+            refreshWaiters.computeIfAbsent(job, key -> new ArrayList<>()).addAll(pending);
+        }
+        CaptureQueue queue = queueFor(job.getType());
+        if (refreshWaiters.containsKey(job)) {
+            queue.priority.addLast(job);
+        } else {
+            queue.add(job);
+        }
+    }
+
+    private void markStarted(CaptureJob next, long now) {
+        if (next.getCircuitBreaker().getState() == CircuitBreaker.State.OPEN) {
+            LOG.info("Probing graph '{}' after {} consecutive failures.", next.getId(), next.getCircuitBreaker().getConsecutiveFailures());
+            next.getCircuitBreaker().startProbe();
+            Metrics.getInstance().increment("capture.circuit.probes." + next.getType());
+        }
+        next.setInFlight(true);
+        next.setCaptureStartedAt(now);
+        next.setCancelled(false);
+        next.setPrimaryFailed(false);
+        capturesStarted++;
+    }
+
+    private CaptureJob takePriority(Predicate<Graph.Type> isReady) {
+        for (CaptureQueue queue : queues.values()) {
+            if (!queue.priority.isEmpty() && isReady.test(queue.priority.peekFirst().getType())) {
+                return queue.priority.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    private CaptureJob takeFromHomeTypes(Collection<Graph.Type> homeTypes, Predicate<Graph.Type> isReady) {
+        return homeTypes.stream()
+                .filter(isReady)
+                .map(this::queueFor)
+                .filter(queue -> !queue.ready.isEmpty())
+                .min(Comparator.comparingLong(queue -> queue.ready.peekFirst().getDeadline()))
+                .map(queue -> queue.ready.pollFirst())
+                .orElse(null);
+    }
+
+    private CaptureJob steal(Collection<Graph.Type> homeTypes, Collection<Graph.Type> sessionTypes,
+                             Predicate<Graph.Type> isReady, long now) {
+        boolean canLogIn = homeTypes.stream().allMatch(isReady) && sessionTypes.stream().allMatch(isReady);
+        CaptureQueue victim = null;
+        for (Map.Entry<Graph.Type, CaptureQueue> entry : queues.entrySet()) {
+            CaptureQueue queue = entry.getValue();
+            Graph.Type type = entry.getKey();
+            if (homeTypes.contains(type) || queue.ready.isEmpty()) {
+                continue;
+            }
+            boolean hasSession = isReady.test(type);
+            if (!hasSession && (sessionTypes.contains(type) || !canLogIn || isStartingAnywhere(type))) {
+                continue;
+            }
+
+            // Establishing a new session costs a login, so only do that for a type that is falling behind.
+            boolean backlogged = queue.ready.size() >= stealThreshold
+                    || now - queue.ready.peekFirst().getDeadline() >= stealAfterMillis;
+            if ((hasSession || backlogged) && (victim == null || queue.ready.size() > victim.ready.size())) {
+                victim = queue;
+            }
+        }
+
+        if (victim == null) {
+            return null;
+        }
+        CaptureJob stolen = victim.ready.pollLast();
+        LOG.debug("Stealing capture of graph '{}' ({} more {} jobs ready).", stolen.getId(), victim.ready.size(), stolen.getType());
+        return stolen;
+    }
+
+    private boolean isStartingAnywhere(Graph.Type type) {
+        return startingSessions.values().stream().anyMatch(types -> types.contains(type));
+    }
+
+    /**
+     * Picks a capture that has been running longer than the p95 of its own capture times, to be attempted again by
+     * this (idle) browser. Only types the browser already holds a ready session for are hedged; a login would take
+     * longer than the capture we are trying to speed up.
+     */
+    private CaptureJob hedge(Predicate<Graph.Type> isReady, long now) {
+        if (runningHedges >= hedgingMaxConcurrent) {
+            return null;
+        }
+        for (CaptureJob job : jobs.values()) {
+            if (!job.isInFlight() || job.getHedge() != null || job.isAwaitingPrimary() || !isReady.test(job.getType())
+                    || job.getLatency().getCount() < HEDGING_MIN_SAMPLES) {
+                continue;
+            }
+            long p95 = job.getLatency().getPercentile(95);
+            if (job.getCaptureStartedAt() == 0 || now - job.getCaptureStartedAt() <= p95) {
+                continue;
+            }
+            if ((hedgesStarted + 1) * 100 > capturesStarted * hedgingBudgetPercent) {
+                Metrics.getInstance().increment("capture.hedge.overBudget." + job.getType());
+                return null;
+            }
+
+            CaptureJob hedge = job.createHedge(hedgeGraph(job.getGraph()), now);
+            job.setHedge(hedge);
+            runningHedges++;
+            hedgesStarted++;
+            Metrics.getInstance().increment("capture.hedge.fired." + job.getType());
+            LOG.info("Capture of graph '{}' is running for {} ms (p95 {} ms), starting a hedge attempt.",
+                    job.getId(), now - job.getCaptureStartedAt(), p95);
+            return hedge;
+        }
+        return null;
+    }
+
+    public void jobCompleted(CaptureJob attempt, boolean success) {
+        CaptureJob job = attempt.getHedgedJob() == null ? attempt : attempt.getHedgedJob();
+        Boolean result = resolveAttempt(attempt, job, success);
+        if (result == null) {
+            // The other attempt at this capture decides the outcome.
+            return;
+        }
+
+        // Publish and checksum the image outside the lock; the files belong to this job until it is completed.
+        if (result) {
+            publishToDuplicates(job);
+        }
+        long imageChecksum = result ? checksum(job.getGraph().getImagePath()) : 0;
+        jobCompleted(job, result, imageChecksum);
+    }
+
+    /**
+     * Decides what the outcome of one attempt means for the job while a hedge is involved: the first successful
+     * attempt wins and cancels the other, a failure only counts once both attempts failed.
+     *
+     * @return the outcome for the job, or null if the other attempt decides it
+     */
+    private synchronized Boolean resolveAttempt(CaptureJob attempt, CaptureJob job, boolean success) {
+        CaptureJob hedge = job.getHedge();
+        if (attempt == job) {
+            if (job.isAwaitingPrimary()) {
+                // The hedge already won; the job can be scheduled again now that this attempt has stopped.
+                job.setAwaitingPrimary(false);
+                job.setInFlight(false);
+                reschedule(job);
+                notifyAll();
+                return null;
+            }
+            if (hedge == null) {
+                return success;
+            }
+            if (success) {
+                hedge.setCancelled(true);
+                job.setHedge(null);
+                runningHedges--;
+                Metrics.getInstance().increment("capture.hedge.lost." + job.getType());
+                return true;
+            }
+            job.setPrimaryFailed(true);
+            return null;
+        }
+
+        Path hedgeImage = Paths.get(attempt.getGraph().getImagePath());
+        if (hedge != attempt) {
+            // Cancelled because the regular attempt finished first.
+            deleteQuietly(hedgeImage);
+            return null;
+        }
+        job.setHedge(null);
+        runningHedges--;
+
+        if (success && moveHedgeImage(hedgeImage, job)) {
+            Metrics.getInstance().increment("capture.hedge.wins." + job.getType());
+            LOG.info("Hedge attempt for graph '{}' finished first.", job.getId());
+            if (!job.isPrimaryFailed()) {
+                job.setCancelled(true);
+                job.setAwaitingPrimary(true);
+            }
+            return true;
+        }
+
+        deleteQuietly(hedgeImage);
+        return job.isPrimaryFailed() ? Boolean.FALSE : null;
+    }
+
+    private synchronized void jobCompleted(CaptureJob job, boolean success, long imageChecksum) {
+        long now = clock.millis();
+        if (!job.isAwaitingPrimary()) {
+            job.setInFlight(false);
+        }
+        if (success) {
+            job.getLatency().record(now - job.getCaptureStartedAt());
+            if (job.getCircuitBreaker().getState() != CircuitBreaker.State.CLOSED) {
+                LOG.info("Graph '{}' recovered, closing its circuit.", job.getId());
+            }
+            job.getCircuitBreaker().recordSuccess();
+            long lastModified = new File(job.getGraph().getImagePath()).lastModified();
+            if (lastModified > job.getLastPublishedAt()) {
+                job.setLastPublishedAt(lastModified);
+                recordImageChange(job, imageChecksum, now - job.getCaptureStartedAt());
+            }
+            job.setDeadline(job.getCaptureStartedAt() + targetIntervalSeconds(job, now) * 1000L);
+        } else {
+            recordFailure(job, now);
+        }
+        completeRefreshes(job, success);
+
+        // A job whose hedge won is scheduled again once its regular attempt has stopped.
+        if (!job.isAwaitingPrimary()) {
+            reschedule(job);
+        }
+        notifyAll();
+    }
+
+    private void recordFailure(CaptureJob job, long now) {
+        Metrics.getInstance().increment("capture.failures." + job.getType());
+        CircuitBreaker circuitBreaker = job.getCircuitBreaker();
+        if (!circuitBreaker.recordFailure(circuitFailureThreshold)) {
+            // Don't hammer a failing graph; try again after a full interval.
+            job.setDeadline(now + targetIntervalSeconds(job, now) * 1000L);
+            return;
+        }
+
+        long backoffMillis = RetryPolicy.backoffMillis(circuitBreaker.getTimesOpened() + 1,
+                circuitBaseBackoffSeconds * 1000L, circuitMaxBackoffSeconds * 1000L);
+        circuitBreaker.open(now + backoffMillis);
+        Metrics.getInstance().add("retry.capture.backoffMillis." + job.getType(), backoffMillis);
+        job.setDeadline(circuitBreaker.getRetryAt());
+        Metrics.getInstance().increment("capture.circuit.opened." + job.getType());
+        LOG.warn("Graph '{}' failed {} times in a row, opening its circuit for {} seconds.",
+                job.getId(), circuitBreaker.getConsecutiveFailures(), backoffMillis / 1000);
+    }
+
+    private void recordImageChange(CaptureJob job, long imageChecksum, long captureMillis) {
+        Metrics metrics = Metrics.getInstance();
+        boolean changed = imageChecksum == 0 || imageChecksum != job.getImageChecksum();
+        job.setImageChecksum(imageChecksum);
+        if (!adaptive) {
+            return;
+        }
+
+        if (changed) {
+            metrics.increment("capture.adaptive.changed." + job.getType());
+            if (job.getBackoffMultiplier() > 1) {
+                LOG.debug("Image of graph '{}' changed, back to base interval of {} seconds.", job.getId(), job.getIntervalSeconds());
+                metrics.increment("capture.adaptive.reset." + job.getType());
+            }
+            job.setUnchangedCaptures(0);
+            job.setBackoffMultiplier(1);
+            return;
+        }
+
+        metrics.increment("capture.adaptive.unchanged." + job.getType());
+        job.setUnchangedCaptures(job.getUnchangedCaptures() + 1);
+        if (adaptiveIntervalSeconds(job) < adaptiveMaxIntervalSeconds) {
+            job.setBackoffMultiplier(job.getBackoffMultiplier() * 2);
+            metrics.increment("capture.adaptive.backoff." + job.getType());
+            LOG.debug("Image of graph '{}' unchanged {} times, backing off to {} seconds.",
+                    job.getId(), job.getUnchangedCaptures(), adaptiveIntervalSeconds(job));
+        }
+
+        // Every base interval within the stretched one is a capture that no longer needs a browser.
+        int baseIntervalSeconds = Math.max(1, job.getIntervalSeconds());
+        long capturesSaved = adaptiveIntervalSeconds(job) / baseIntervalSeconds - 1;
+        metrics.add("capture.adaptive.capturesSaved." + job.getType(), capturesSaved);
+        metrics.add("capture.adaptive.browserMillisSaved." + job.getType(), capturesSaved * captureMillis);
+    }
+
+    public synchronized List<CaptureJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    public synchronized Map<String, Long> getLagMillis() {
+        long now = clock.millis();
+        Map<String, Long> lag = new LinkedHashMap<>();
+        jobs.values().forEach(job -> lag.put(job.getId(), job.getLagMillis(now, targetIntervalSeconds(job, now))));
+        return lag;
+    }
+
+    /**
+     * How far the most overdue job that a browser could capture right now is past its deadline, in milliseconds.
+     * Jobs that are being captured, whose circuit is open, or that nobody is viewing while capturing is demand-driven
+     * are left out: another browser would not get those captured any sooner.
+     */
+    public synchronized long getCaptureBacklogMillis() {
+        long now = clock.millis();
+        return jobs.values().stream()
+                .filter(job -> !job.isInFlight() && job.getCircuitBreaker().getState() != CircuitBreaker.State.OPEN)
+                .filter(job -> !demandDriven || isViewed(job, now))
+                .mapToLong(job -> now - job.getDeadline())
+                .filter(overdue -> overdue > 0)
+                .max().orElse(0);
+    }
+
+    public synchronized JSONObject toJSON() {
+        long now = clock.millis();
+        JSONArray jobsJa = new JSONArray();
+        long maxLagMillis = 0;
+        int overdue = 0;
+        for (CaptureJob job : jobs.values()) {
+            int targetIntervalSeconds = targetIntervalSeconds(job, now);
+            long lagMillis = job.getLagMillis(now, targetIntervalSeconds);
+            maxLagMillis = Math.max(maxLagMillis, lagMillis);
+            if (lagMillis > 0) {
+                overdue++;
+            }
+
+            JSONObject jobJo = new JSONObject();
+            jobJo.put("id", job.getId());
+            jobJo.put("type", job.getType().toString());
+            JSONArray duplicatesJa = new JSONArray();
+            job.getDuplicates().forEach(duplicate -> duplicatesJa.add(duplicate.getId()));
+            jobJo.put("sharedWith", duplicatesJa);
+            jobJo.put("intervalSeconds", job.getIntervalSeconds());
+            jobJo.put("targetIntervalSeconds", targetIntervalSeconds);
+            jobJo.put("backoffMultiplier", job.getBackoffMultiplier());
+            jobJo.put("unchangedCaptures", job.getUnchangedCaptures());
+            jobJo.put("circuit", job.getCircuitBreaker().getState().toString());
+            jobJo.put("consecutiveFailures", job.getCircuitBreaker().getConsecutiveFailures());
+            jobJo.put("lastPublished", job.getLastPublishedAt());
+            jobJo.put("nextDeadline", job.getDeadline());
+            jobJo.put("inFlight", job.isInFlight());
+            jobJo.put("hedged", job.getHedge() != null);
+            jobJo.put("latency", job.getLatency().toJSON());
+            JSONObject phasesJo = new JSONObject();
+            job.getPhaseLatency().forEach((phase, histogram) -> phasesJo.put(phase, histogram.toJSON()));
+            jobJo.put("phases", phasesJo);
+            JSONObject commandsJo = new JSONObject();
+            job.getCommandLatency().forEach((command, histogram) -> commandsJo.put(command, histogram.toJSON()));
+            jobJo.put("commands", commandsJo);
+            jobJo.put("lagSeconds", lagMillis / 1000);
+            jobsJa.add(jobJo);
+        }
+
+        JSONObject json = new JSONObject();
+        JSONObject queuesJo = new JSONObject();
+        queues.forEach((type, queue) -> {
+            JSONObject queueJo = new JSONObject();
+            queueJo.put("ready", queue.ready.size());
+            queueJo.put("scheduled", queue.scheduled.size());
+            queuesJo.put(type.toString(), queueJo);
+        });
+
+        json.put("jobs", jobsJa);
+        json.put("queues", queuesJo);
+        json.put("overdue", overdue);
+        json.put("maxLagSeconds", maxLagMillis / 1000);
+        json.put("runningHedges", runningHedges);
+        return json;
+    }
+
+    /**
+     * Moves the capture of a graph to the priority lane, ahead of all scheduled work. A request is only served by a
+     * capture that starts after it; if the graph is being captured already, it is captured again right after that.
+     *
+     * @param published completed with the outcome of the capture that serves this request, unless the request is
+     *                  rate limited or the graph is unknown
+     */
+    public synchronized RefreshStatus requestRefresh(String graphId, CompletableFuture<Boolean> published) {
+        String captureKey = captureKeysByGraph.get(graphId);
+        CaptureJob job = captureKey == null ? null : jobs.get(captureKey);
+        if (job == null) {
+            return RefreshStatus.NOT_FOUND;
+        }
+
+        long now = clock.millis();
+        CaptureQueue queue = queueFor(job.getType());
+        // A preloaded job that the browser hasn't started on yet still captures what is there now.
+        boolean notStartedYet = job.isInFlight() && (job.getCaptureStartedAt() == 0 || job.getCaptureStartedAt() >= now);
+        if (notStartedYet || queue.priority.contains(job)) {
+            refreshWaiters.computeIfAbsent(job, key -> new ArrayList<>()).add(published);
+            Metrics.getInstance().increment("capture.refresh.coalesced." + job.getType());
+            return RefreshStatus.COALESCED;
+        }
+        if (pendingRefreshes.containsKey(job)) {
+            pendingRefreshes.get(job).add(published);
+            Metrics.getInstance().increment("capture.refresh.coalesced." + job.getType());
+            return RefreshStatus.COALESCED;
+        }
+
+        while (!recentRefreshes.isEmpty() && recentRefreshes.peekFirst() <= now - REFRESH_WINDOW_MILLIS) {
+            recentRefreshes.pollFirst();
+        }
+        if (recentRefreshes.size() >= refreshMaxPerMinute) {
+            Metrics.getInstance().increment("capture.refresh.rateLimited." + job.getType());
+            LOG.warn("Not refreshing graph '{}' right away: limit of {} refreshes per minute reached.", graphId, refreshMaxPerMinute);
+            return RefreshStatus.RATE_LIMITED;
+        }
+        recentRefreshes.addLast(now);
+
+        if (job.isInFlight()) {
+            LOG.info("Refresh of graph '{}' requested while it is being captured, capturing it again afterwards.", graphId);
+            pendingRefreshes.computeIfAbsent(job, key -> new ArrayList<>()).add(published);
+            Metrics.getInstance().increment("capture.refresh.queued." + job.getType());
+            return RefreshStatus.QUEUED;
+        }
+
+        LOG.info("Refresh of graph '{}' requested, capturing it ahead of the schedule.", graphId);
+        queue.remove(job);
+        queue.priority.addLast(job);
+        refreshWaiters.computeIfAbsent(job, key -> new ArrayList<>()).add(published);
+        Metrics.getInstance().increment("capture.refresh.queued." + job.getType());
+        notifyAll();
+        return RefreshStatus.QUEUED;
+    }
+
+    /**
+     * @return the ids of the graphs on the dashboard, or null if there is no such dashboard
+     */
+    public synchronized List<String> getGraphIds(String dashboardId) {
+        List<String> graphIds = graphIdsByDashboard.get(dashboardId);
+        return graphIds == null ? null : new ArrayList<>(graphIds);
+    }
+
+    private void completeRefreshes(CaptureJob job, boolean success) {
+        List<CompletableFuture<Boolean>> waiters = refreshWaiters.remove(job);
+        if (waiters != null) {
+            waiters.forEach(waiter -> waiter.complete(success));
+        }
+    }
+
+    private void completePendingRefreshes(CaptureJob job) {
+        List<CompletableFuture<Boolean>> waiters = pendingRefreshes.remove(job);
+        if (waiters != null) {
+            waiters.forEach(waiter -> waiter.complete(false));
+        }
+    }
+
+    /**
+     * Registers a status request for a dashboard. When nobody was watching it before, its stale graphs are captured first.
+     */
+    public synchronized void dashboardViewed(String dashboardId, String viewer) {
+        long now = clock.millis();
+        if (viewers.recordDashboardView(dashboardId, viewer, now) && demandDriven) {
+            LOG.info("Dashboard '{}' is being viewed again, promoting its graphs.", dashboardId);
+            graphIdsByDashboard.getOrDefault(dashboardId, Collections.emptyList()).forEach(graphId -> promote(graphId, now));
+            notifyAll();
+        }
+    }
+
+    public synchronized void graphViewed(String graphId) {
+        long now = clock.millis();
+        if (viewers.recordGraphView(graphId, now) && demandDriven && !isOnActiveDashboard(graphId, now)) {
+            promote(graphId, now);
+            notifyAll();
+        }
+    }
+
+    public synchronized JSONObject viewersToJSON() {
+        long now = clock.millis();
+        JSONArray dashboardsJa = new JSONArray();
+        graphIdsByDashboard.keySet().forEach(dashboardId -> {
+            JSONObject dashboardJo = new JSONObject();
+            dashboardJo.put("id", dashboardId);
+            dashboardJo.put("viewers", viewers.getViewerCount(dashboardId, now));
+            dashboardJo.put("lastViewed", viewers.getLastViewed(dashboardId));
+            dashboardJo.put("active", viewers.isDashboardActive(dashboardId, now));
+            dashboardsJa.add(dashboardJo);
+        });
+
+        JSONArray activeGraphsJa = new JSONArray();
+        captureKeysByGraph.keySet().stream().filter(graphId -> isGraphViewed(graphId, now)).forEach(activeGraphsJa::add);
+
+        JSONObject json = new JSONObject();
+        json.put("demandDriven", demandDriven);
+        json.put("backgroundIntervalSeconds", backgroundIntervalSeconds);
+        json.put("dashboards", dashboardsJa);
+        json.put("activeGraphs", activeGraphsJa);
+        return json;
+    }
+
+    private void promote(String graphId, long now) {
+        String captureKey = captureKeysByGraph.get(graphId);
+        CaptureJob job = captureKey == null ? null : jobs.get(captureKey);
+        if (job == null || job.isInFlight() || job.getDeadline() <= now) {
+            return;
+        }
+
+        // Only graphs that are stale by their regular interval need a capture right away.
+        if (job.getLastPublishedAt() + job.getIntervalSeconds() * 1000L <= now) {
+            queueFor(job.getType()).remove(job);
+            job.setDeadline(now);
+            queueFor(job.getType()).add(job);
+        }
+    }
+
+    private boolean isViewed(CaptureJob job, long now) {
+        return isGraphViewed(job.getId(), now)
+                || job.getDuplicates().stream().anyMatch(duplicate -> isGraphViewed(duplicate.getId(), now));
+    }
+
+    private boolean isGraphViewed(String graphId, long now) {
+        return viewers.isGraphViewed(graphId, now) || isOnActiveDashboard(graphId, now);
+    }
+
+    private boolean isOnActiveDashboard(String graphId, long now) {
+        return dashboardIdsByGraph.getOrDefault(graphId, Collections.emptyList()).stream()
+                .anyMatch(dashboardId -> viewers.isDashboardActive(dashboardId, now));
+    }
+
+    private int targetIntervalSeconds(CaptureJob job, long now) {
+        int intervalSeconds = adaptive ? adaptiveIntervalSeconds(job) : job.getIntervalSeconds();
+        if (!demandDriven || isViewed(job, now)) {
+            return intervalSeconds;
+        }
+        return Math.max(intervalSeconds, backgroundIntervalSeconds);
+    }
+
+    private int adaptiveIntervalSeconds(CaptureJob job) {
+        if (job.getBackoffMultiplier() <= 1) {
+            return job.getIntervalSeconds();
+        }
+        long stretched = (long) Math.max(1, job.getIntervalSeconds()) * job.getBackoffMultiplier();
+        return (int) Math.min(stretched, Math.max(job.getIntervalSeconds(), adaptiveMaxIntervalSeconds));
+    }
+
+    /**
+     * Makes the freshly captured image available under the ids of the graphs that share it. Hard links are swapped in
+     * atomically through a temporary link, so the frontend never sees a partially written file; where hard links are
+     * not supported the image is copied instead.
+     */
+    private static void publishToDuplicates(CaptureJob job) {
+        Path source = Paths.get(job.getGraph().getImagePath());
+        for (Graph duplicate : job.getDuplicates()) {
+            Path target = Paths.get(duplicate.getImagePath());
+            Path temp = null;
+            try {
+                // A name of its own, so concurrent publishes to the same file don't trip over each other's link.
+                temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+                try {
+                    Files.delete(temp);
+                    Files.createLink(temp, source);
+                } catch (UnsupportedOperationException | IOException e) {
+                    Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Metrics.getInstance().increment("capture.dedup.published." + job.getType());
+            } catch (IOException e) {
+                LOG.error("Error while publishing image of graph '" + job.getId() + "' as '" + duplicate.getId() + "': ", e);
+                if (temp != null) {
+                    deleteQuietly(temp);
+                }
+            }
+        }
+    }
+
+    private static boolean moveHedgeImage(Path hedgeImage, CaptureJob job) {
+        try {
+            Files.move(hedgeImage, Paths.get(job.getGraph().getImagePath()),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Error while publishing hedged image of graph '" + job.getId() + "': ", e);
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.debug("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static Graph hedgeGraph(Graph graph) {
+        Graph hedgeGraph = new Graph();
+        hedgeGraph.setId(graph.getId());
+        hedgeGraph.setType(graph.getType());
+        hedgeGraph.setUrl(graph.getUrl());
+        hedgeGraph.setBrowserWidth(graph.getBrowserWidth());
+        hedgeGraph.setBrowserHeight(graph.getBrowserHeight());
+        hedgeGraph.setTimeRange(graph.getTimeRange());
+        hedgeGraph.setComponents(graph.getComponents());
+        hedgeGraph.setRefreshSeconds(graph.getRefreshSeconds());
+        hedgeGraph.setImagePath(graph.getImagePath() + HEDGE_SUFFIX);
+        return hedgeGraph;
+    }
+
+    /**
+     * Everything that determines what a graph image looks like; graphs with the same capture key share a capture.
+     */
+    static String captureKey(Graph graph) {
+        return graph.getType() + "|" + graph.getUrl() + "|" + graph.getBrowserWidth() + "x" + graph.getBrowserHeight()
+                + "|" + graph.getTimeRange() + "|" + graph.getComponents();
+    }
+
+    private static long checksum(String imagePath) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(Paths.get(imagePath)));
+            return crc.getValue();
+        } catch (IOException e) {
+            LOG.debug("Could not checksum image {}: {}", imagePath, e.getMessage());
+            return 0;
+        }
+    }
+
+    private CaptureQueue queueFor(Graph.Type type) {
+        return queues.computeIfAbsent(type, t -> new CaptureQueue());
+    }
+
+    private static int determineIntervalSeconds(Graph graph, List<Plugin> plugins) {
+        if (graph.getRefreshSeconds() != null) {
+            return Math.max(0, graph.getRefreshSeconds());
+        }
+        Plugin plugin = Config.getPlugin(plugins, graph.getType());
+        if (plugin == null) {
+            return 0;
+        }
+        return Math.max(0, plugin.getUpdateIntervalSeconds());
+    }
+
+    /**
+     * Jobs of a single graph type: scheduled jobs wait for their deadline, ready jobs wait for a browser.
+     */
+    private static class CaptureQueue {
+
+        private final PriorityQueue<CaptureJob> scheduled = new PriorityQueue<>(BY_DEADLINE);
+        private final Deque<CaptureJob> ready = new ArrayDeque<>();
+        private final Deque<CaptureJob> priority = new ArrayDeque<>();
+
+        void add(CaptureJob job) {
+            scheduled.add(job);
+        }
+
+        void remove(CaptureJob job) {
+            if (!scheduled.remove(job) && !ready.remove(job)) {
+                priority.remove(job);
+            }
+        }
+
+        void promoteDueJobs(long now) {
+            while (!scheduled.isEmpty() && scheduled.peek().getDeadline() <= now) {
+                ready.addLast(scheduled.poll());
+            }
+        }
+
+        long nextWakeUp() {
+            return scheduled.isEmpty() ? Long.MAX_VALUE : scheduled.peek().getDeadline();
+        }
+    }
+
+}
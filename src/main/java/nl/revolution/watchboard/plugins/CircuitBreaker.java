@@ -0,0 +1,65 @@
+package nl.revolution.watchboard.plugins;
+
+/**
+ * Failure state of a single graph. The circuit opens after a number of consecutive failures; once the back-off has
+ * passed, one capture is let through as a half-open probe. A successful probe closes the circuit, a failed one opens
+ * it again with a longer back-off.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int timesOpened;
+    private long retryAt;
+
+    public void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        timesOpened = 0;
+        retryAt = 0;
+    }
+
+    /**
+     * @return true when the circuit should (re)open because of this failure
+     */
+    public boolean recordFailure(int failureThreshold) {
+        consecutiveFailures++;
+        return state == State.HALF_OPEN || consecutiveFailures >= failureThreshold;
+    }
+
+    public void open(long retryAt) {
+        this.state = State.OPEN;
+        this.retryAt = retryAt;
+        timesOpened++;
+    }
+
+    public void startProbe() {
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Number of times the circuit opened since the last success; drives the exponential back-off.
+     */
+    public int getTimesOpened() {
+        return timesOpened;
+    }
+
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+}
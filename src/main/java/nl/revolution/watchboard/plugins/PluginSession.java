@@ -0,0 +1,579 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.utils.ProcessStats;
+import nl.revolution.watchboard.utils.RetryPolicy;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * A plugin together with its own browser session. Every plugin on a browser instance gets a session of its own, so
+ * a restart or (slow) re-login of one plugin never holds up captures for the others.
+ *
+ * Restarts never happen in place: a standby browser is started and logged in on the recovery executor, the worker
+ * switches over to it between two captures and the old browser is retired afterwards. For planned rotations (max
+ * session duration) the old browser keeps capturing until the standby is ready, so there is no capture gap at all.
+ *
+ * Planned rotations are driven by the resources of the browser process: its RSS and CPU usage are sampled from
+ * /proc, and the capture latency is compared to the baseline of the fresh browser. The max session duration is only
+ * a fallback.
+ *
+ * Driver starts and logins are retried with the shared {@link RetryPolicy}s below, so an upstream outage leads to a
+ * bounded number of spread-out attempts over all browsers instead of every session retrying on its own. Logins are
+ * mostly skipped altogether: the new browser gets the {@link SessionCookies} of the previous one.
+ *
+ * A session whose browser could not be started, or whose replacement failed, is FAILED: it gets no jobs, and a new
+ * standby is only tried once the retry delay has passed.
+ */
+public class PluginSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PluginSession.class);
+    private static final int DEFAULT_RESTART_AFTER_FAILED_GRAPHS = 3;
+    private static final long FAILED_ROTATION_RETRY_MS = 60 * 1000;
+    private static final int DEFAULT_SAMPLE_INTERVAL_SECONDS = 15;
+    private static final int DEFAULT_MAX_RSS_MB = 1024;
+    private static final int DEFAULT_MAX_CPU_PERCENT = 90;
+    private static final int DEFAULT_LATENCY_FACTOR = 3;
+    private static final int HIGH_CPU_SAMPLES_BEFORE_RECYCLE = 4;
+    private static final int LATENCY_BASELINE_CAPTURES = 5;
+    private static final double LATENCY_EWMA_WEIGHT = 0.2;
+
+    private static final RetryPolicy DRIVER_START_RETRY = new RetryPolicy("driverStart", Config.RETRY_DRIVER_START,
+            5, 10 * 1000, 60 * 1000, 10, Clock.systemDefaultZone());
+    private static final RetryPolicy LOGIN_RETRY = new RetryPolicy("login", Config.RETRY_LOGIN,
+            5, 10 * 1000, 120 * 1000, 10, Clock.systemDefaultZone());
+
+    public enum State {
+        STARTING, READY, RECOVERING, FAILED, STOPPED
+    }
+
+    private final String browserInstance;
+    private final Supplier<WebDriverWrapper> driverFactory;
+    private final Supplier<WatchboardPlugin> standbyPluginFactory;
+    private final ExecutorService recoveryExecutor;
+    private final Clock clock;
+    // Also cleared from the recovery executor, when a standby has been started.
+    private final Set<String> consecutivelyFailedGraphs = ConcurrentHashMap.newKeySet();
+    private volatile WatchboardPlugin plugin;
+    private volatile WebDriverWrapper wrappedDriver;
+    private volatile Standby standby;
+    private volatile boolean rotating;
+    private volatile State state = State.STARTING;
+    private volatile Runnable readyListener = () -> { };
+    private volatile long sessionStartedAt;
+    private volatile long nextRotationAttempt;
+    private volatile long lastRecoveryMillis;
+    private BrowserTabs tabs;
+
+    // Resource samples of the active browser; only touched by the worker thread apart from the gauges.
+    private int processId = -1;
+    private long lastSampleAt;
+    private long lastCpuMillis = -1;
+    private volatile long rssKb = -1;
+    private volatile double cpuPercent = -1;
+    private int highCpuSamples;
+    private int capturesSinceStart;
+    private double baselineCaptureMillis;
+    private volatile double averageCaptureMillis;
+
+    // Startup phases, reported as gauges.
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long startupQueuedMillis = -1;
+    private volatile long startupDriverMillis = -1;
+    private volatile long startupLoginMillis = -1;
+    private volatile long firstImageMillis = -1;
+
+    public PluginSession(String browserInstance, WatchboardPlugin plugin, Supplier<WebDriverWrapper> driverFactory,
+                         ExecutorService recoveryExecutor) {
+        this(browserInstance, plugin, driverFactory, () -> PluginSource.createPlugin(plugin.getGraphType()),
+                recoveryExecutor, Clock.systemDefaultZone());
+    }
+
+    PluginSession(String browserInstance, WatchboardPlugin plugin, Supplier<WebDriverWrapper> driverFactory,
+                  Supplier<WatchboardPlugin> standbyPluginFactory, ExecutorService recoveryExecutor, Clock clock) {
+        this.browserInstance = browserInstance;
+        this.plugin = plugin;
+        this.driverFactory = driverFactory;
+        this.standbyPluginFactory = standbyPluginFactory;
+        this.recoveryExecutor = recoveryExecutor;
+        this.clock = clock;
+
+        String metricSuffix = metricSuffix();
+        Metrics.getInstance().gauge("session.lastRecoveryMillis." + metricSuffix, () -> lastRecoveryMillis);
+        Metrics.getInstance().gauge("session.ready." + metricSuffix, () -> state == State.READY ? 1 : 0);
+        Metrics.getInstance().gauge("browser.rssMB." + metricSuffix, () -> rssKb < 0 ? -1 : rssKb / 1024);
+        Metrics.getInstance().gauge("browser.cpuPercent." + metricSuffix, () -> Math.round(cpuPercent));
+        Metrics.getInstance().gauge("browser.captureMillis." + metricSuffix, () -> Math.round(averageCaptureMillis));
+        Metrics.getInstance().gauge("session.startup.queuedMillis." + metricSuffix, () -> startupQueuedMillis);
+        Metrics.getInstance().gauge("session.startup.driverMillis." + metricSuffix, () -> startupDriverMillis);
+        Metrics.getInstance().gauge("session.startup.loginMillis." + metricSuffix, () -> startupLoginMillis);
+        Metrics.getInstance().gauge("session.startup.firstImageMillis." + metricSuffix, () -> firstImageMillis);
+    }
+
+    /**
+     * Starts the browser and logs in on the given executor. The session becomes ready, and capturing for this plugin
+     * starts, as soon as its own login has finished. If that fails, the session stays out of rotation until a standby
+     * browser has been started after the retry delay.
+     */
+    public void startAsync(ExecutorService startupExecutor) {
+        startupExecutor.execute(() -> {
+            try {
+                start();
+            } catch (Exception e) {
+                LOG.error("Error while starting " + plugin.getName() + " session on browser instance '" + browserInstance + "': ", e);
+                if (state == State.STARTING) {
+                    fail("startup failed.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the browser and logs in, on the calling thread.
+     */
+    public void start() {
+        long start = System.currentTimeMillis();
+        startupQueuedMillis = start - createdAt;
+        LOG.info("Starting {} session on browser instance '{}'.", plugin.getName(), browserInstance);
+        WebDriverWrapper newDriver = driverFactory.get();
+        startDriver(plugin, newDriver);
+        wrappedDriver = newDriver;
+        long driverStarted = System.currentTimeMillis();
+        startupDriverMillis = driverStarted - start;
+
+        login(plugin, newDriver);
+        sessionStartedAt = System.currentTimeMillis();
+        startupLoginMillis = sessionStartedAt - driverStarted;
+        LOG.info("Started {} session on browser instance '{}': waited {} ms, driver started in {} ms, logged in in {} ms.",
+                plugin.getName(), browserInstance, startupQueuedMillis, startupDriverMillis, startupLoginMillis);
+
+        if (state == State.STOPPED) {
+            // The worker was stopped while we were logging in.
+            newDriver.shutdown();
+        } else {
+            becomeReady();
+        }
+    }
+
+    /**
+     * The plugin to capture with. Switches over to a standby browser first if one has become ready; only the worker
+     * thread calls this, so no capture is running on the old browser while it is being replaced.
+     */
+    public WatchboardPlugin activePlugin() {
+        Standby ready = standby;
+        if (ready != null) {
+            standby = null;
+            WatchboardPlugin oldPlugin = plugin;
+            WebDriverWrapper oldDriver = wrappedDriver;
+            plugin = ready.plugin;
+            wrappedDriver = ready.wrappedDriver;
+            sessionStartedAt = System.currentTimeMillis();
+            consecutivelyFailedGraphs.clear();
+            resetResourceSamples();
+            LOG.info("Switched {} session on browser instance '{}' to standby browser.", plugin.getName(), browserInstance);
+            retire(oldPlugin, oldDriver);
+        }
+        return plugin;
+    }
+
+    /**
+     * @return whether the graph that comes after the given one can be loaded in a spare tab of this browser
+     */
+    public boolean canPreloadAfter(CaptureJob current) {
+        if (state != State.READY || Config.getInstance().getInt(Config.BROWSER_TABS, 1) <= 1
+                || plugin.getPreloadUrl(current.getGraph()) == null) {
+            return false;
+        }
+        return tabs == null || !tabs.belongsTo(wrappedDriver) || tabs.hasSpareTab();
+    }
+
+    /**
+     * Starts loading the graph of the job in a spare tab, so it is (partly) loaded by the time it is captured.
+     *
+     * @return false if the graph could not be preloaded; it is then captured the normal way
+     */
+    public boolean preload(CaptureJob job) {
+        WatchboardPlugin active = activePlugin();
+        String url = active.getPreloadUrl(job.getGraph());
+        if (url == null) {
+            return false;
+        }
+        try {
+            if (tabs == null || !tabs.belongsTo(wrappedDriver)) {
+                tabs = new BrowserTabs(wrappedDriver, Config.getInstance().getInt(Config.BROWSER_TABS, 1));
+            }
+            if (!tabs.hasSpareTab()) {
+                return false;
+            }
+            tabs.preload(job, url);
+            Metrics.getInstance().increment("browser.tabs.preloads." + metricSuffix());
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Unable to preload graph '{}' on browser instance '{}': {}", job.getId(), browserInstance, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Switches to the tab to capture the job in.
+     *
+     * @return the url that was preloaded for the job, or null if the capture has to load its page itself
+     */
+    public String activateTab(CaptureJob job) {
+        if (tabs == null || !tabs.belongsTo(wrappedDriver)) {
+            return null;
+        }
+        try {
+            if (!tabs.activate(job)) {
+                return null;
+            }
+        } catch (Exception e) {
+            // The capture itself will run into the same problem and fail properly.
+            LOG.warn("Unable to switch tabs for graph '{}' on browser instance '{}': {}", job.getId(), browserInstance, e.getMessage());
+            return null;
+        }
+        Metrics.getInstance().increment("browser.tabs.hits." + metricSuffix());
+        return plugin.getPreloadUrl(job.getGraph());
+    }
+
+    public void releaseTab(CaptureJob job) {
+        if (tabs != null) {
+            tabs.release(job);
+        }
+    }
+
+    /**
+     * Replaces a broken browser. The session is taken out of rotation until the standby is ready. Shortly after a
+     * failed standby no new one is started yet; the session is FAILED until {@link #rotateIfNeeded()} retries.
+     */
+    public void recover(String reason) {
+        if (state != State.READY) {
+            return;
+        }
+        consecutivelyFailedGraphs.clear();
+        if (!rotating && clock.millis() < nextRotationAttempt) {
+            fail(reason);
+            return;
+        }
+        state = State.RECOVERING;
+        LOG.info("Recovering {} session on browser instance '{}': {}", plugin.getName(), browserInstance, reason);
+        if (!rotating) {
+            startStandby(false);
+        }
+    }
+
+    private void fail(String reason) {
+        state = State.FAILED;
+        nextRotationAttempt = Math.max(nextRotationAttempt, clock.millis() + FAILED_ROTATION_RETRY_MS);
+        LOG.warn("{} session on browser instance '{}' failed, starting a new browser in {} s: {}", plugin.getName(),
+                browserInstance, (nextRotationAttempt - clock.millis()) / 1000, reason);
+    }
+
+    /**
+     * Logs in again on a fresh browser, without interrupting captures.
+     */
+    public void restart(String reason) {
+        rotate(reason);
+    }
+
+    /**
+     * Replaces a healthy browser without interrupting captures.
+     */
+    private void rotate(String reason) {
+        if (state != State.READY || rotating) {
+            return;
+        }
+        LOG.info("Rotating {} session on browser instance '{}': {}", plugin.getName(), browserInstance, reason);
+        startStandby(true);
+    }
+
+    private void startStandby(boolean planned) {
+        rotating = true;
+        Graph.Type type = plugin.getGraphType();
+        try {
+            recoveryExecutor.execute(() -> prepareStandby(type, planned));
+        } catch (RejectedExecutionException e) {
+            // Only when the worker is stopping, so the state doesn't matter anymore.
+            rotating = false;
+            LOG.info("Not starting standby for {} session on browser instance '{}', worker is stopping.", type, browserInstance);
+        }
+    }
+
+    private void prepareStandby(Graph.Type type, boolean planned) {
+        long start = System.currentTimeMillis();
+        WatchboardPlugin standbyPlugin = null;
+        WebDriverWrapper standbyDriver = null;
+        try {
+            standbyPlugin = standbyPluginFactory.get();
+            standbyDriver = driverFactory.get();
+            startDriver(standbyPlugin, standbyDriver);
+            login(standbyPlugin, standbyDriver);
+        } catch (Exception e) {
+            LOG.error("Error while starting standby " + type + " session on browser instance '" + browserInstance + "': ", e);
+            if (standbyPlugin != null) {
+                retire(standbyPlugin, standbyDriver);
+            }
+            nextRotationAttempt = clock.millis() + FAILED_ROTATION_RETRY_MS;
+            if (state == State.RECOVERING) {
+                // The old browser is broken, so don't hand out jobs for it; rotateIfNeeded() tries again later.
+                fail("standby could not be started.");
+            }
+            rotating = false;
+            return;
+        }
+
+        if (state == State.STOPPED) {
+            retire(standbyPlugin, standbyDriver);
+            return;
+        }
+
+        lastRecoveryMillis = System.currentTimeMillis() - start;
+        Metrics.getInstance().increment((planned ? "session.rotations." : "session.recoveries.") + metricSuffix());
+        Metrics.getInstance().add("session.recoveryMillis." + metricSuffix(), lastRecoveryMillis);
+        LOG.info("Standby {} session on browser instance '{}' ready in {} ms.", type, browserInstance, lastRecoveryMillis);
+
+        standby = new Standby(standbyPlugin, standbyDriver);
+        rotating = false;
+        if (state == State.RECOVERING || state == State.FAILED) {
+            becomeReady();
+        }
+    }
+
+    private void becomeReady() {
+        state = State.READY;
+        readyListener.run();
+    }
+
+    private static void startDriver(WatchboardPlugin target, WebDriverWrapper driver) {
+        DRIVER_START_RETRY.run(target.getGraphType().toString(), attempt -> driver.start());
+        target.setDriver(driver);
+    }
+
+    private static void login(WatchboardPlugin target, WebDriverWrapper driver) {
+        if (SessionCookies.restore(target, driver)) {
+            return;
+        }
+        LOGIN_RETRY.run(target.getGraphType().toString(), attempt -> {
+            if (attempt > 1) {
+                // A failed login can leave the browser on any page; start again with a fresh one.
+                driver.shutdown();
+                startDriver(target, driver);
+            }
+            target.performLogin();
+        });
+        SessionCookies.save(target, driver);
+    }
+
+    private void retire(WatchboardPlugin oldPlugin, WebDriverWrapper oldDriver) {
+        Runnable shutdown = () -> {
+            oldPlugin.shutdown();
+            if (oldDriver != null) {
+                oldDriver.shutdown();
+            }
+        };
+        try {
+            recoveryExecutor.execute(shutdown);
+        } catch (RejectedExecutionException e) {
+            shutdown.run();
+        }
+    }
+
+    /**
+     * Shuts the active browser down from another thread, so a capture stuck in a WebDriver call fails right away. The
+     * failure that follows makes the worker recover the session.
+     */
+    public void kill() {
+        WebDriverWrapper stuckDriver = wrappedDriver;
+        if (stuckDriver != null) {
+            stuckDriver.shutdown();
+        }
+    }
+
+    public void recordSuccess(long captureMillis) {
+        consecutivelyFailedGraphs.clear();
+        if (firstImageMillis < 0) {
+            firstImageMillis = System.currentTimeMillis() - createdAt;
+            LOG.info("First {} image on browser instance '{}' published {} ms after startup.", plugin.getName(), browserInstance, firstImageMillis);
+        }
+
+        capturesSinceStart++;
+        if (capturesSinceStart <= LATENCY_BASELINE_CAPTURES) {
+            baselineCaptureMillis += (captureMillis - baselineCaptureMillis) / capturesSinceStart;
+            averageCaptureMillis = baselineCaptureMillis;
+        } else {
+            averageCaptureMillis = LATENCY_EWMA_WEIGHT * captureMillis + (1 - LATENCY_EWMA_WEIGHT) * averageCaptureMillis;
+        }
+    }
+
+    /**
+     * A single failing graph is left to its circuit breaker in the scheduler. The session is only recovered when the
+     * failure looks systemic: the browser no longer responds, or several different graphs failed in a row.
+     */
+    public void recordFailure(CaptureJob job) {
+        consecutivelyFailedGraphs.add(job.getId());
+        int restartAfterFailedGraphs = Config.getInstance().getInt(Config.SCHEDULER_CIRCUIT_RESTART_AFTER_FAILED_GRAPHS,
+                DEFAULT_RESTART_AFTER_FAILED_GRAPHS);
+
+        if (wrappedDriver == null || !wrappedDriver.isAlive()) {
+            recover("browser is not responding after update of graph '" + job.getId() + "' failed.");
+        } else if (consecutivelyFailedGraphs.size() >= restartAfterFailedGraphs) {
+            recover(consecutivelyFailedGraphs.size() + " different graphs failed in a row " + consecutivelyFailedGraphs + ".");
+        } else {
+            LOG.warn("Update of graph '{}' for plugin '{}' failed; session on browser instance '{}' is still healthy, not restarting.",
+                    job.getId(), plugin.getName(), browserInstance);
+        }
+    }
+
+    /**
+     * Called by the worker between captures. Retries a failed session once its retry delay has passed. A ready
+     * session is recycled through a standby browser when, at the sampling interval, the browser's RSS exceeds its
+     * limit, its CPU usage stays above its limit for several samples, or its average capture time has grown to a
+     * multiple of its baseline. Regardless of those, a session that is older than the maximum session duration is
+     * recycled as well, so logins don't expire while capturing.
+     */
+    public void rotateIfNeeded() {
+        long now = clock.millis();
+        if (state == State.FAILED && !rotating && now >= nextRotationAttempt) {
+            state = State.RECOVERING;
+            LOG.info("Retrying failed {} session on browser instance '{}'.", plugin.getName(), browserInstance);
+            startStandby(false);
+            return;
+        }
+        if (state != State.READY || rotating || now < nextRotationAttempt) {
+            return;
+        }
+
+        Config config = Config.getInstance();
+        if (now - lastSampleAt >= config.getInt(Config.BROWSER_RECYCLE_SAMPLE_INTERVAL_SECONDS, DEFAULT_SAMPLE_INTERVAL_SECONDS) * 1000L) {
+            sampleResources(now);
+
+            int maxRssMb = config.getInt(Config.BROWSER_RECYCLE_MAX_RSS_MB, DEFAULT_MAX_RSS_MB);
+            if (maxRssMb > 0 && rssKb / 1024 > maxRssMb) {
+                recycle("memory", "RSS of " + rssKb / 1024 + " MB exceeds " + maxRssMb + " MB.");
+                return;
+            }
+
+            int maxCpuPercent = config.getInt(Config.BROWSER_RECYCLE_MAX_CPU_PERCENT, DEFAULT_MAX_CPU_PERCENT);
+            highCpuSamples = maxCpuPercent > 0 && cpuPercent > maxCpuPercent ? highCpuSamples + 1 : 0;
+            if (highCpuSamples >= HIGH_CPU_SAMPLES_BEFORE_RECYCLE) {
+                recycle("cpu", "CPU usage above " + maxCpuPercent + "% for " + highCpuSamples + " samples in a row.");
+                return;
+            }
+
+            int latencyFactor = config.getInt(Config.BROWSER_RECYCLE_LATENCY_FACTOR, DEFAULT_LATENCY_FACTOR);
+            if (latencyFactor > 0 && capturesSinceStart > 2 * LATENCY_BASELINE_CAPTURES
+                    && averageCaptureMillis > latencyFactor * baselineCaptureMillis) {
+                recycle("latency", "average capture time of " + Math.round(averageCaptureMillis) + " ms is more than "
+                        + latencyFactor + " times the baseline of " + Math.round(baselineCaptureMillis) + " ms.");
+                return;
+            }
+        }
+
+        long sessionMinutes = (now - sessionStartedAt) / 1000 / 60;
+        if (sessionMinutes > config.getInt(Config.MAX_SESSION_DURATION_MINUTES)) {
+            recycle("age", "max session duration exceeded (" + sessionMinutes + " minutes).");
+        }
+    }
+
+    private void recycle(String trigger, String reason) {
+        Metrics.getInstance().increment("browser.recycle." + trigger + "." + metricSuffix());
+        rotate(reason);
+    }
+
+    private void sampleResources(long now) {
+        if (processId < 0) {
+            processId = wrappedDriver.getProcessId();
+            if (processId < 0) {
+                // Not on Linux, or not a PhantomJS process; keep the timestamp so we don't scan /proc on every loop.
+                lastSampleAt = now;
+                return;
+            }
+        }
+
+        rssKb = ProcessStats.readRssKb(processId);
+        long cpuMillis = ProcessStats.readCpuMillis(processId);
+        if (lastCpuMillis >= 0 && cpuMillis >= 0 && now > lastSampleAt) {
+            cpuPercent = 100.0 * (cpuMillis - lastCpuMillis) / (now - lastSampleAt);
+        }
+        lastCpuMillis = cpuMillis;
+        lastSampleAt = now;
+    }
+
+    private void resetResourceSamples() {
+        processId = -1;
+        lastSampleAt = 0;
+        lastCpuMillis = -1;
+        rssKb = -1;
+        cpuPercent = -1;
+        highCpuSamples = 0;
+        capturesSinceStart = 0;
+        baselineCaptureMillis = 0;
+        averageCaptureMillis = 0;
+    }
+
+    public void shutdown() {
+        state = State.STOPPED;
+        plugin.shutdown();
+        if (wrappedDriver != null) {
+            wrappedDriver.shutdown();
+        }
+        Standby unused = standby;
+        if (unused != null) {
+            standby = null;
+            unused.plugin.shutdown();
+            unused.wrappedDriver.shutdown();
+        }
+        Metrics.getInstance().removeGauge("session.lastRecoveryMillis." + metricSuffix());
+        Metrics.getInstance().removeGauge("session.ready." + metricSuffix());
+        Metrics.getInstance().removeGauge("browser.rssMB." + metricSuffix());
+        Metrics.getInstance().removeGauge("browser.cpuPercent." + metricSuffix());
+        Metrics.getInstance().removeGauge("browser.captureMillis." + metricSuffix());
+        Metrics.getInstance().removeGauge("session.startup.queuedMillis." + metricSuffix());
+        Metrics.getInstance().removeGauge("session.startup.driverMillis." + metricSuffix());
+        Metrics.getInstance().removeGauge("session.startup.loginMillis." + metricSuffix());
+        Metrics.getInstance().removeGauge("session.startup.firstImageMillis." + metricSuffix());
+    }
+
+    /**
+     * Called whenever the session becomes ready, after starting up or recovering; the worker waits for this rather
+     * than taking jobs the session can't capture yet.
+     */
+    public void setReadyListener(Runnable readyListener) {
+        this.readyListener = readyListener;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private String metricSuffix() {
+        return browserInstance + "." + plugin.getGraphType();
+    }
+
+    private static class Standby {
+
+        private final WatchboardPlugin plugin;
+        private final WebDriverWrapper wrappedDriver;
+
+        Standby(WatchboardPlugin plugin, WebDriverWrapper wrappedDriver) {
+            this.plugin = plugin;
+            this.wrappedDriver = wrappedDriver;
+        }
+
+    }
+
+}
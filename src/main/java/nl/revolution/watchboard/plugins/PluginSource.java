@@ -11,90 +11,196 @@ import nl.revolution.watchboard.plugins.sonar.SonarPlugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 public class PluginSource {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginSource.class);
 
-    private List<Thread> workers;
+    private static final List<Graph.Type> PLUGIN_TYPES = Arrays.asList(Graph.Type.CLOUDWATCH,
+            Graph.Type.CLOUDWATCH_DASHBOARD, Graph.Type.PERFORMR, Graph.Type.KIBANA, Graph.Type.KIBANA5, Graph.Type.SONAR);
 
-    public void start() {
-        workers = new ArrayList<>();
+    private static final int DEFAULT_STARTUP_PARALLELISM = 4;
 
-        List<String> browserInstances = Config.getInstance().getBrowserInstances();
+    private static final int DEFAULT_TOPOLOGY_CHECK_INTERVAL_SECONDS = 30;
 
-        for (String browserInstance : browserInstances) {
-            List<WatchboardPlugin> pluginsForBrowserInstance = new ArrayList<>();
-
-            Plugin cloudWatchPlugin = Config.getInstance().getPlugin(Graph.Type.CLOUDWATCH);
-            if (cloudWatchPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.CLOUDWATCH) > 0
-                    && browserInstance.equals(cloudWatchPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new CloudWatchPlugin());
-                LOG.info("CloudWatch plugin configured for browser instance '" + browserInstance + "'.");
-            }
+    private final Map<String, PluginUpdateThread> workers = new LinkedHashMap<>();
+    private final Map<Graph.Type, Plugin> pluginSettings = new EnumMap<>(Graph.Type.class);
+    private BrowserAutoscaler autoscaler;
+    private ExecutorService startupExecutor;
+    private ScheduledExecutorService topologyExecutor;
 
-            Plugin cloudWatchDashboardPlugin = Config.getInstance().getPlugin(Graph.Type.CLOUDWATCH_DASHBOARD);
-            if (cloudWatchDashboardPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.CLOUDWATCH_DASHBOARD) > 0
-                    && browserInstance.equals(cloudWatchDashboardPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new CloudWatchDashboardPlugin());
-                LOG.info("CloudWatch dashboard plugin configured for browser instance '" + browserInstance + "'.");
+    public void start() {
+        int startupParallelism = Math.max(1, Config.getInstance().getInt(Config.STARTUP_PARALLELISM, DEFAULT_STARTUP_PARALLELISM));
+        AtomicInteger startupThreadCount = new AtomicInteger();
+        startupExecutor = Executors.newFixedThreadPool(startupParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "browser-startup-" + startupThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CaptureScheduler scheduler = CaptureScheduler.getInstance();
+        scheduler.synchronize(Config.getInstance().getDashboards(), Config.getInstance().getPlugins());
+
+        reconfigure();
+
+        // The config can change at runtime (config UI, DynamoDB); follow it without restarting untouched browsers.
+        int checkIntervalSeconds = Config.getInstance().getInt(Config.TOPOLOGY_CHECK_INTERVAL_SECONDS, DEFAULT_TOPOLOGY_CHECK_INTERVAL_SECONDS);
+        topologyExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "browser-topology");
+            thread.setDaemon(true);
+            return thread;
+        });
+        topologyExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                reconfigure();
+            } catch (Exception e) {
+                LOG.error("Error while applying browser topology: ", e);
             }
+        }, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
 
-            Plugin performrPlugin = Config.getInstance().getPlugin(Graph.Type.PERFORMR);
-            if (performrPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.PERFORMR) > 0
-                    && browserInstance.equals(performrPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new PerformrPlugin());
-                LOG.info("Performr plugin configured for browser instance '" + browserInstance + "'.");
-            }
+        if (Config.getInstance().getBoolean(Config.AUTOSCALER_ENABLED, false)) {
+            autoscaler = new BrowserAutoscaler(scheduler,
+                    name -> new PluginUpdateThread(name, new ArrayList<>(), scheduler, startupExecutor), Clock.systemUTC());
+            autoscaler.start();
+        }
+    }
+
+    public void stop() {
+        if (topologyExecutor != null) {
+            topologyExecutor.shutdownNow();
+        }
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+        synchronized (this) {
+            workers.values().forEach(this::stopWorker);
+            workers.clear();
+        }
+        startupExecutor.shutdownNow();
+    }
 
-            Plugin kibanaPlugin = Config.getInstance().getPlugin(Graph.Type.KIBANA);
-            if (kibanaPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.KIBANA) > 0
-                    && browserInstance.equals(kibanaPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new KibanaPlugin(Graph.Type.KIBANA));
-                LOG.info("Kibana plugin configured for browser instance '" + browserInstance + "'.");
+    /**
+     * Brings the browser workers in line with the current config. Only what changed is touched: new workers are
+     * started, workers that no longer have plugins are stopped, workers whose plugins changed add or drop just those
+     * sessions, and sessions of plugins whose login settings changed are rotated to a fresh login. Everything else
+     * keeps its browser and session.
+     */
+    synchronized void reconfigure() {
+        // Workers normally pick up config changes, but there may not be any worker yet.
+        CaptureScheduler.getInstance().refreshFromConfig();
+        Config config = Config.getInstance();
+        Map<String, Set<Graph.Type>> desired = topology(config.getBrowserInstances(), config.getPlugins(),
+                type -> config.getGraphCountForType(type) > 0);
+
+        // Start new sessions before stopping old ones, so a plugin that moves between browsers is picked up quickly.
+        desired.forEach((workerName, types) -> {
+            PluginUpdateThread worker = workers.get(workerName);
+            if (worker == null) {
+                LOG.info("Starting browser instance '{}' for plugins {}.", workerName, types);
+                List<WatchboardPlugin> plugins = types.stream().map(PluginSource::createPlugin).collect(Collectors.toList());
+                worker = new PluginUpdateThread(workerName, plugins, CaptureScheduler.getInstance(), startupExecutor);
+                workers.put(workerName, worker);
+                worker.start();
+            } else if (!worker.getHomeTypes().equals(types)) {
+                LOG.info("Plugins of browser instance '{}' changed from {} to {}.", workerName, worker.getHomeTypes(), types);
+                worker.setHomeTypes(types);
+            }
+        });
+
+        Iterator<Map.Entry<String, PluginUpdateThread>> iterator = workers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PluginUpdateThread> entry = iterator.next();
+            if (!desired.containsKey(entry.getKey())) {
+                LOG.info("No plugins left for browser instance '{}', stopping it.", entry.getKey());
+                iterator.remove();
+                stopWorker(entry.getValue());
             }
+        }
 
-            Plugin kibana5Plugin = Config.getInstance().getPlugin(Graph.Type.KIBANA5);
-            if (kibana5Plugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.KIBANA5) > 0
-                    && browserInstance.equals(kibana5Plugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new KibanaPlugin(Graph.Type.KIBANA5));
-                LOG.info("Kibana5 plugin configured for browser instance '" + browserInstance + "'.");
+        for (Plugin plugin : config.getPlugins()) {
+            Plugin previous = pluginSettings.put(plugin.getType(), plugin);
+            if (previous != null && !sameLoginSettings(previous, plugin)) {
+                LOG.info("Login settings of {} plugin changed, logging in again.", plugin.getType());
+                workers.values().forEach(worker -> worker.restartSession(plugin.getType()));
             }
+        }
+    }
+
+    private static boolean sameLoginSettings(Plugin previous, Plugin current) {
+        return Objects.equals(previous.getLoginUrl(), current.getLoginUrl())
+                && Objects.equals(previous.getUsername(), current.getUsername())
+                && Objects.equals(previous.getPassword(), current.getPassword());
+    }
 
-            Plugin sonarPlugin = Config.getInstance().getPlugin(Graph.Type.SONAR);
-            if (sonarPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.SONAR) > 0
-                    && browserInstance.equals(sonarPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new SonarPlugin());
-                LOG.info("Sonar plugin configured for browser instance '" + browserInstance + "'.");
+    /**
+     * @return per worker, the plugin types pinned to it. Each pool slot is a separate browser with its own login;
+     * slot n of a browser instance serves every plugin with a pool of at least n.
+     */
+    static Map<String, Set<Graph.Type>> topology(List<String> browserInstances, List<Plugin> plugins, Predicate<Graph.Type> hasGraphs) {
+        Map<String, Set<Graph.Type>> topology = new LinkedHashMap<>();
+        for (String browserInstance : browserInstances) {
+            List<Plugin> pluginsForBrowserInstance = new ArrayList<>();
+            for (Graph.Type type : PLUGIN_TYPES) {
+                plugins.stream()
+                        .filter(plugin -> plugin.getType() == type && hasGraphs.test(type)
+                                && browserInstance.equals(plugin.getBrowserInstance()))
+                        .findFirst()
+                        .ifPresent(pluginsForBrowserInstance::add);
             }
 
-            if (!pluginsForBrowserInstance.isEmpty()) {
-                LOG.info("Starting browser instance '" + browserInstance + "' for plugins " + pluginsForBrowserInstance + ".");
-                workers.add(new PluginUpdateThread(browserInstance, pluginsForBrowserInstance));
-            } else {
-                LOG.warn("No plugins configured for browser instance '" + browserInstance + "', skipping initialization.");
+            int poolSize = pluginsForBrowserInstance.stream().mapToInt(Plugin::getBrowserPoolSize).max().orElse(0);
+            for (int slot = 1; slot <= poolSize; slot++) {
+                Set<Graph.Type> types = EnumSet.noneOf(Graph.Type.class);
+                for (Plugin plugin : pluginsForBrowserInstance) {
+                    if (plugin.getBrowserPoolSize() >= slot) {
+                        types.add(plugin.getType());
+                    }
+                }
+                topology.put(slot == 1 ? browserInstance : browserInstance + "#" + slot, types);
             }
         }
-
-        workers.stream().forEach(Thread::start);
+        return topology;
     }
 
-    public void stop() {
-        workers.stream().forEach(this::stopWorker);
+    static WatchboardPlugin createPlugin(Graph.Type type) {
+        switch (type) {
+            case CLOUDWATCH:
+                return new CloudWatchPlugin();
+            case CLOUDWATCH_DASHBOARD:
+                return new CloudWatchDashboardPlugin();
+            case PERFORMR:
+                return new PerformrPlugin();
+            case KIBANA:
+            case KIBANA5:
+                return new KibanaPlugin(type);
+            case SONAR:
+                return new SonarPlugin();
+            default:
+                throw new IllegalArgumentException("No plugin available for graph type " + type + ".");
+        }
     }
 
-    private void stopWorker(Thread worker) {
+    private void stopWorker(PluginUpdateThread worker) {
         if (worker != null) {
             if (worker.isAlive()) {
-                ((PluginUpdateThread)worker).doStop();
+                worker.doStop();
                 try {
                     worker.join();
                 } catch (InterruptedException e) {
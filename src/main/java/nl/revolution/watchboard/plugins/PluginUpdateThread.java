@@ -1,94 +1,374 @@
 package nl.revolution.watchboard.plugins;
 
 import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.CaptureContext.CaptureCancelledException;
+import nl.revolution.watchboard.utils.CaptureContext.DeadlineExceededException;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class PluginUpdateThread extends Thread {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginUpdateThread.class);
-    private WebDriverWrapper wrappedDriver;
+    private static final long MAX_IDLE_WAIT_MS = 1000;
+    private static final int DEFAULT_TIMEOUT_FACTOR = 3;
+    private static final int DEFAULT_MIN_PHASE_TIMEOUT_SECONDS = 2;
+    private static final int DEFAULT_MIN_DEADLINE_SECONDS = 30;
+    private static final int DEFAULT_MAX_DEADLINE_SECONDS = 180;
+    private static final int DEFAULT_WATCHDOG_GRACE_SECONDS = 15;
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "capture-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CaptureScheduler scheduler;
+    private ExecutorService recoveryExecutor;
+    private ExecutorService startupExecutor;
 
     private List<WatchboardPlugin> plugins;
-    private boolean stop;
-    private long currentSessionStartTimestamp;
+    private Map<Graph.Type, PluginSession> sessionsByType;
+    private volatile Set<Graph.Type> homeTypes;
+    private volatile Set<Graph.Type> pendingHomeTypes;
+    private final Set<Graph.Type> pendingRestarts = ConcurrentHashMap.newKeySet();
+    private volatile boolean stop;
     private String browserInstance;
     private String pluginNames;
+    private volatile long lastActiveAt = System.currentTimeMillis();
+    private final Deque<CaptureJob> preloadedJobs = new ArrayDeque<>();
 
-    public PluginUpdateThread(String browserInstance, List<WatchboardPlugin> plugins) {
+    public PluginUpdateThread(String browserInstance, List<WatchboardPlugin> plugins, CaptureScheduler scheduler,
+                              ExecutorService startupExecutor) {
         this.browserInstance = browserInstance;
         this.plugins = plugins;
+        this.scheduler = scheduler;
+        this.startupExecutor = startupExecutor;
+        this.sessionsByType = new ConcurrentHashMap<>();
+        this.homeTypes = EnumSet.noneOf(Graph.Type.class);
+        plugins.forEach(plugin -> homeTypes.add(plugin.getGraphType()));
         this.pluginNames = plugins.stream().map(WatchboardPlugin::getName).collect(Collectors.joining(","));
+
+        AtomicInteger recoveryThreadCount = new AtomicInteger();
+        this.recoveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "recovery-" + browserInstance + "-" + recoveryThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void run() {
         LOG.info("Starting data worker for browser instance '{}' with plugins {}.", browserInstance, pluginNames);
-        currentSessionStartTimestamp = System.currentTimeMillis();
 
-        wrappedDriver = WebDriverWrapper.phantomJs();
-        wrappedDriver.start();
-
-        plugins.forEach(plugin -> plugin.setDriver(wrappedDriver));
-        plugins.forEach(WatchboardPlugin::performLogin);
+        // Browsers are started and logged in concurrently; capturing for a plugin starts as soon as its session is ready.
+        for (WatchboardPlugin plugin : plugins) {
+            createSession(plugin).startAsync(startupExecutor);
+        }
 
         LOG.info("Starting main update loop for plugins " + pluginNames);
 
         while (!stop) {
-            plugins.forEach(plugin -> {
-                if (!performSinglePluginUpdate(plugin)) {
-                    LOG.error("Update run for plugin '" + plugin.getName() + "' failed, restarting browserInstance '" + browserInstance + "' for plugins " + pluginNames + ": ");
-                    restartWebDriverAndReLogin();
+            CaptureJob job = null;
+            try {
+                scheduler.refreshFromConfig();
+                applyTopologyChanges();
+
+                // Graphs that are already loading in a spare tab go first. Types whose session is still logging in
+                // count as our own, but get no jobs until the session is ready.
+                CaptureJob preloaded = preloadedJobs.poll();
+                if (preloaded == null) {
+                    scheduler.reportStartingSessions(browserInstance, startingTypes());
+                }
+                job = preloaded != null ? preloaded
+                        : scheduler.takeNextJob(homeTypes, sessionTypes(), this::isReady, MAX_IDLE_WAIT_MS);
+                if (job != null) {
+                    lastActiveAt = System.currentTimeMillis();
+                    capture(job);
+                    job = null;
+                }
+
+                sessionsByType.values().forEach(PluginSession::rotateIfNeeded);
+            } catch (InterruptedException e) {
+                LOG.info("Interrupted while waiting for the next capture job on browser instance '{}'.", browserInstance);
+                break;
+            } catch (Exception e) {
+                // Never let the worker die; a job it was holding would stay in flight forever.
+                LOG.error("Error in update loop of browser instance '" + browserInstance + "':", e);
+                if (job != null) {
+                    scheduler.jobCompleted(job, false);
+                }
+            }
+        }
+
+        // Hand back graphs that were preloaded but never captured.
+        preloadedJobs.forEach(scheduler::release);
+        preloadedJobs.clear();
+        scheduler.reportStartingSessions(browserInstance, EnumSet.noneOf(Graph.Type.class));
+    }
+
+    /**
+     * Captures the graph of the job, or hands the job back if there is no logged in session for it (yet). Once the
+     * outcome has been reported to the scheduler, nothing in here throws anymore.
+     */
+    private void capture(CaptureJob job) {
+        PluginSession session = sessionsByType.get(job.getType());
+        if (session == null) {
+            // Logging in takes a while; meanwhile a browser that is logged in can take the job.
+            establishSession(job.getType());
+            scheduler.reportStartingSessions(browserInstance, startingTypes());
+            scheduler.release(job);
+            return;
+        }
+        if (!session.isReady()) {
+            // The session broke after the job was handed out; it gets no more jobs until it has recovered.
+            scheduler.release(job);
+            return;
+        }
+
+        preloadNextJobs(session, job);
+        scheduler.captureStarted(job);
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> published = performSingleGraphUpdate(session, job);
+        session.releaseTab(job);
+        if (published == null) {
+            if (!job.isCancelled()) {
+                session.recordFailure(job);
+            }
+            scheduler.jobCompleted(job, false);
+        } else {
+            // The browser is done; the image may still be processed while we move on to the next graph.
+            session.recordSuccess(System.currentTimeMillis() - start);
+            published.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    LOG.error("Error while publishing image of graph '" + job.getId() + "':", e);
                 }
+                scheduler.jobCompleted(job, e == null && !job.isCancelled());
             });
+        }
+    }
+
+    /**
+     * Changes the plugins pinned to this browser. Sessions of plugins that are added are started, sessions of
+     * plugins that are removed are stopped; other sessions are left alone. Applied by the worker thread between
+     * captures.
+     */
+    public void setHomeTypes(Set<Graph.Type> types) {
+        pendingHomeTypes = EnumSet.copyOf(types);
+    }
+
+    public Set<Graph.Type> getHomeTypes() {
+        Set<Graph.Type> pending = pendingHomeTypes;
+        return EnumSet.copyOf(pending != null ? pending : homeTypes);
+    }
+
+    /**
+     * Makes the session of the plugin log in again, e.g. after its credentials changed.
+     */
+    public void restartSession(Graph.Type type) {
+        pendingRestarts.add(type);
+    }
+
+    private void applyTopologyChanges() {
+        Set<Graph.Type> newHomeTypes = pendingHomeTypes;
+        if (newHomeTypes != null) {
+            pendingHomeTypes = null;
+            for (Graph.Type type : newHomeTypes) {
+                if (!sessionsByType.containsKey(type)) {
+                    LOG.info("Adding {} session to browser instance '{}'.", type, browserInstance);
+                    createSession(PluginSource.createPlugin(type)).startAsync(startupExecutor);
+                }
+            }
+            for (Graph.Type type : homeTypes) {
+                if (!newHomeTypes.contains(type)) {
+                    LOG.info("Removing {} session from browser instance '{}'.", type, browserInstance);
+                    releasePreloadedJobs(type);
+                    PluginSession session = sessionsByType.remove(type);
+                    if (session != null) {
+                        session.shutdown();
+                    }
+                }
+            }
+            homeTypes = newHomeTypes;
+        }
 
-            // Re-start webdriver and re-login every now and than to prevent session max duration issues.
-            long currentSessionTimeInMinutes = ((System.currentTimeMillis() - currentSessionStartTimestamp) / 1000 / 60);
-            LOG.info("currentSessionTimeInMinutes: " + currentSessionTimeInMinutes);
-            if (currentSessionTimeInMinutes > Config.getInstance().getInt(Config.MAX_SESSION_DURATION_MINUTES)) {
-                LOG.info("Max session duration exceeded, restarting browser instance '" + browserInstance + "'.");
+        for (Graph.Type type : pendingRestarts) {
+            pendingRestarts.remove(type);
+            PluginSession session = sessionsByType.get(type);
+            if (session != null) {
+                session.restart("plugin settings changed.");
+            }
+        }
+    }
 
-                // Restart; this also resets the session duration timer.
-                restartWebDriverAndReLogin();
+    private void releasePreloadedJobs(Graph.Type type) {
+        Iterator<CaptureJob> iterator = preloadedJobs.iterator();
+        while (iterator.hasNext()) {
+            CaptureJob job = iterator.next();
+            if (job.getType() == type) {
+                iterator.remove();
+                scheduler.release(job);
             }
         }
     }
 
-    private boolean performSinglePluginUpdate(WatchboardPlugin plugin) {
+    /**
+     * Starts loading the next due graphs of the same type in the spare tabs of the browser, so their pages load while
+     * the current graph is being captured.
+     */
+    private void preloadNextJobs(PluginSession session, CaptureJob current) {
+        while (session.canPreloadAfter(current)) {
+            CaptureJob next = scheduler.pollDueJob(current.getType());
+            if (next == null) {
+                return;
+            }
+            if (!session.preload(next)) {
+                scheduler.release(next);
+                return;
+            }
+            preloadedJobs.add(next);
+        }
+    }
+
+    private Set<Graph.Type> sessionTypes() {
+        Set<Graph.Type> types = EnumSet.noneOf(Graph.Type.class);
+        types.addAll(sessionsByType.keySet());
+        return types;
+    }
+
+    private boolean isReady(Graph.Type type) {
+        PluginSession session = sessionsByType.get(type);
+        return session != null && session.isReady();
+    }
+
+    /**
+     * @return the types this browser is logging in to, so other browsers don't log in to them as well
+     */
+    private Set<Graph.Type> startingTypes() {
+        Set<Graph.Type> types = EnumSet.noneOf(Graph.Type.class);
+        sessionsByType.forEach((type, session) -> {
+            if (session.getState() == PluginSession.State.STARTING || session.getState() == PluginSession.State.RECOVERING) {
+                types.add(type);
+            }
+        });
+        return types;
+    }
+
+    /**
+     * @return completes when the image has been published, or null if the capture failed in the browser
+     */
+    private CompletableFuture<Void> performSingleGraphUpdate(PluginSession session, CaptureJob job) {
+        WatchboardPlugin plugin = session.activePlugin();
+        String preloadedUrl = session.activateTab(job);
         long start = System.currentTimeMillis();
         String pluginName = plugin.getName();
-        LOG.info("Performing update for plugin " + pluginName);
+        LOG.debug("Performing update of graph '{}' for plugin {}.", job.getId(), pluginName);
+
+        // The deadline follows the capture history of the graph; a graph that broke fails fast instead of using up
+        // the maximum every cycle.
+        Config config = Config.getInstance();
+        int timeoutFactor = config.getInt(Config.CAPTURE_TIMEOUT_FACTOR, DEFAULT_TIMEOUT_FACTOR);
+        long deadlineMillis = CaptureContext.derivedTimeoutMillis(job.getLatency(), timeoutFactor,
+                config.getInt(Config.CAPTURE_MIN_DEADLINE_SECONDS, DEFAULT_MIN_DEADLINE_SECONDS) * 1000L,
+                config.getInt(Config.CAPTURE_MAX_DEADLINE_SECONDS, DEFAULT_MAX_DEADLINE_SECONDS) * 1000L);
+        long watchdogGraceMillis = config.getInt(Config.CAPTURE_WATCHDOG_GRACE_SECONDS, DEFAULT_WATCHDOG_GRACE_SECONDS) * 1000L;
+
+        // Waits notice the deadline themselves; the watchdog is for captures stuck in a single WebDriver call.
+        ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+            LOG.error("Update of graph '{}' for plugin {} is still running {} ms after its deadline, killing the browser.",
+                    job.getId(), pluginName, watchdogGraceMillis);
+            Metrics.getInstance().increment("capture.watchdog.kills." + job.getType());
+            session.kill();
+        }, deadlineMillis + watchdogGraceMillis, TimeUnit.MILLISECONDS);
 
         // Perform update.
+        boolean success = false;
+        CompletableFuture<Void> published = null;
+        String commands;
+        CaptureContext.begin(job::isCancelled, job.getPhaseLatency(), job.getCommandLatency(), timeoutFactor,
+                config.getInt(Config.CAPTURE_MIN_PHASE_TIMEOUT_SECONDS, DEFAULT_MIN_PHASE_TIMEOUT_SECONDS) * 1000L,
+                start + deadlineMillis);
+        CaptureContext.setPreloaded(preloadedUrl);
         try {
-            plugin.performUpdate();
+            plugin.performSingleUpdate(job.getGraph());
+            // Another attempt may already have published an image; this one may have missed the cancellation.
+            success = !job.isCancelled();
+            published = CaptureContext.pendingImageWork();
+        } catch (CaptureCancelledException e) {
+            LOG.debug("Update of graph '{}' for plugin {} was cancelled, another attempt finished first.", job.getId(), pluginName);
+        } catch (DeadlineExceededException e) {
+            LOG.error("Update of graph '{}' for plugin {} aborted after {} ms: {}", job.getId(), pluginName,
+                    System.currentTimeMillis() - start, e.getMessage());
+            Metrics.getInstance().increment("capture.timeouts.deadlineExceeded." + job.getType());
         } catch (Exception e) {
-            LOG.error("Error while performing plugin update for plugin '" + plugin.getName() + "':", e);
-            return false;
+            LOG.error("Error while updating graph '" + job.getId() + "' for plugin '" + pluginName + "':", e);
+        } finally {
+            watchdog.cancel(false);
+            commands = CaptureContext.commandSummary();
+            CaptureContext.end(success);
         }
 
+        if (!success) {
+            return null;
+        }
         long end = System.currentTimeMillis();
-        LOG.info("Done performing update for plugin " + pluginName + ". Update took " + ((end - start) / 1000) + " seconds.");
+        LOG.debug("Done updating graph '{}' for plugin {}. Update took {} ms, WebDriver commands: {}.",
+                job.getId(), pluginName, end - start, commands);
+        return published;
+    }
 
-        // Wait before fetching next update.
-//        int backendUpdateIntervalSeconds = plugin.getUpdateInterval();
-//        LOG.debug("Sleeping {} seconds until next update for plugin " + pluginName + ".", backendUpdateIntervalSeconds);
-//        doSleep(1000 * backendUpdateIntervalSeconds);
-        return true;
+    private PluginSession createSession(WatchboardPlugin plugin) {
+        PluginSession session = new PluginSession(browserInstance, plugin,
+                () -> WebDriverWrapper.forPlugin(plugin.getGraphType()), recoveryExecutor);
+        // The worker may be waiting for a job while the session logs in; let it start capturing right away.
+        session.setReadyListener(scheduler::wakeUp);
+        sessionsByType.put(plugin.getGraphType(), session);
+        return session;
     }
 
-    public void doStop() {
-        stop = true;
-        plugins.forEach(WatchboardPlugin::shutdown);
+    /**
+     * Logs in to a plugin that is not pinned to this browser instance, so it can take over work from busier browsers.
+     * The session takes part in capturing once its login has finished.
+     */
+    private void establishSession(Graph.Type type) {
+        LOG.info("Establishing {} session on browser instance '{}' to take over backlogged work.", type, browserInstance);
+        createSession(PluginSource.createPlugin(type)).startAsync(startupExecutor);
+    }
+
+    /**
+     * @return how long this worker has been waiting for work
+     */
+    public long getIdleMillis() {
+        return System.currentTimeMillis() - lastActiveAt;
     }
 
-    private void restartWebDriverAndReLogin() {
-        wrappedDriver.restart();
-        plugins.forEach(WatchboardPlugin::performLogin);
-        currentSessionStartTimestamp = System.currentTimeMillis();
+    public String getBrowserInstance() {
+        return browserInstance;
+    }
+
+    public void doStop() {
+        stop = true;
+        interrupt();
+        recoveryExecutor.shutdownNow();
+        sessionsByType.values().forEach(PluginSession::shutdown);
     }
 
 }
@@ -0,0 +1,304 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.metrics.Metrics;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session cookies of logged in browsers, so a restarted browser can pick up the session of its predecessor instead
+ * of going through the (slow) login form again. The cookies are snapshotted after every login and injected into the
+ * next browser for the same plugin and account; {@link WatchboardPlugin#hasValidSession()} then tells whether the
+ * upstream still accepts them, and only if not a full login follows.
+ *
+ * The cookies are kept in memory, and in an encrypted file if 'session.cookies.file' and 'session.cookies.key' are
+ * set, so they also survive a restart of the server; the "change-me" placeholder is not accepted as key. Cookies of a
+ * login longer than 'session.cookies.maxAgeMinutes' ago are not reused, which forces a fresh login every now and then.
+ */
+class SessionCookies {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCookies.class);
+    private static final int DEFAULT_MAX_AGE_MINUTES = 12 * 60;
+    private static final int FORMAT_VERSION = 1;
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int KEY_ITERATIONS = 65536;
+    private static final int KEY_BITS = 128;
+    private static final int TAG_BITS = 128;
+    private static final String PLACEHOLDER_KEY = "change-me";
+
+    private static SessionCookies instance;
+
+    private final File file;
+    private final char[] key;
+    private final long maxAgeMillis;
+    private final Clock clock;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Snapshot> snapshots = new HashMap<>();
+
+    SessionCookies(File file, char[] key, long maxAgeMillis, Clock clock) {
+        this.file = file;
+        this.key = key;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+        if (file != null && file.isFile()) {
+            load();
+        }
+    }
+
+    static synchronized SessionCookies getInstance() {
+        if (instance == null) {
+            Config config = Config.getInstance();
+            String path = config.getString(Config.SESSION_COOKIES_FILE);
+            String key = config.getString(Config.SESSION_COOKIES_KEY);
+            if (PLACEHOLDER_KEY.equals(key)) {
+                key = null;
+            }
+            File file = null;
+            if (path != null && key != null) {
+                file = new File(path);
+            } else if (path != null) {
+                LOG.warn("No '{}' configured, keeping session cookies in memory only.", Config.SESSION_COOKIES_KEY);
+            }
+            long maxAgeMillis = config.getInt(Config.SESSION_COOKIES_MAX_AGE_MINUTES, DEFAULT_MAX_AGE_MINUTES) * 60 * 1000L;
+            instance = new SessionCookies(file, key == null ? null : key.toCharArray(), maxAgeMillis, Clock.systemDefaultZone());
+        }
+        return instance;
+    }
+
+    /**
+     * Injects the stored cookies of the plugin's account into the (fresh) browser and checks whether they still give
+     * a valid session. Rejected cookies are dropped and cleared from the browser again.
+     *
+     * @return whether the browser is logged in, so the login can be skipped
+     */
+    static boolean restore(WatchboardPlugin target, WebDriverWrapper driver) {
+        if (!isEnabled(target)) {
+            return false;
+        }
+        Graph.Type type = target.getGraphType();
+        SessionCookies store = getInstance();
+        String account = account(type, driver);
+        List<Map<String, Object>> cookies = store.get(account);
+        if (cookies == null) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            driver.importCookies(cookies);
+            if (target.hasValidSession()) {
+                Metrics.getInstance().increment("session.cookies.restored." + type);
+                LOG.info("Reused session cookies for {}, login skipped ({} ms).", type, System.currentTimeMillis() - start);
+                // The upstream may have refreshed the cookies while checking them.
+                store.update(account, driver.exportCookies());
+                return true;
+            }
+            LOG.info("Session cookies for {} were rejected, logging in.", type);
+        } catch (Exception e) {
+            LOG.warn("Unable to reuse session cookies for {}, logging in: {}", type, e.getMessage());
+        }
+        Metrics.getInstance().increment("session.cookies.rejected." + type);
+        store.remove(account);
+        try {
+            driver.clearCookies();
+        } catch (Exception e) {
+            LOG.warn("Unable to clear rejected session cookies for {}: {}", type, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Snapshots the cookies of a browser that has just logged in.
+     */
+    static void save(WatchboardPlugin target, WebDriverWrapper driver) {
+        if (!isEnabled(target)) {
+            return;
+        }
+        try {
+            getInstance().put(account(target.getGraphType(), driver), driver.exportCookies());
+        } catch (Exception e) {
+            LOG.warn("Unable to save session cookies for {}: {}", target.getGraphType(), e.getMessage());
+        }
+    }
+
+    private static boolean isEnabled(WatchboardPlugin target) {
+        return target.hasSessionProbe() && Config.getInstance().getBoolean(Config.SESSION_COOKIES_ENABLED, true);
+    }
+
+    /**
+     * Cookies are only reused for the same login url and user, so changed login settings always lead to a login, and
+     * by browsers of the same backend, which store cookies in their own format.
+     */
+    private static String account(Graph.Type type, WebDriverWrapper driver) {
+        Plugin plugin = Config.getInstance().getPlugin(type);
+        return type + "|" + driver.getBackend().getName() + "|" + plugin.getLoginUrl() + "|" + plugin.getUsername();
+    }
+
+    /**
+     * @return the cookies stored for the account, or null if there are none or they are too old
+     */
+    synchronized List<Map<String, Object>> get(String account) {
+        Snapshot snapshot = snapshots.get(account);
+        if (snapshot == null) {
+            return null;
+        }
+        if (clock.millis() - snapshot.savedAt > maxAgeMillis) {
+            remove(account);
+            return null;
+        }
+        return snapshot.cookies;
+    }
+
+    synchronized void put(String account, List<Map<String, Object>> cookies) {
+        if (cookies.isEmpty()) {
+            remove(account);
+            return;
+        }
+        snapshots.put(account, new Snapshot(clock.millis(), cookies));
+        store();
+    }
+
+    /**
+     * Replaces the stored cookies of the account, keeping the time of its login, which is what the max age counts from.
+     */
+    synchronized void update(String account, List<Map<String, Object>> cookies) {
+        Snapshot snapshot = snapshots.get(account);
+        if (snapshot == null || cookies.isEmpty()) {
+            return;
+        }
+        snapshots.put(account, new Snapshot(snapshot.savedAt, cookies));
+        store();
+    }
+
+    synchronized void remove(String account) {
+        if (snapshots.remove(account) != null) {
+            store();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown session cookies format.");
+            }
+            byte[] salt = new byte[SALT_BYTES];
+            byte[] iv = new byte[IV_BYTES];
+            in.readFully(salt);
+            in.readFully(iv);
+            byte[] encrypted = new byte[(int) file.length() - 4 - SALT_BYTES - IV_BYTES];
+            in.readFully(encrypted);
+            String json = new String(cipher(Cipher.DECRYPT_MODE, salt, iv).doFinal(encrypted), StandardCharsets.UTF_8);
+
+            JSONObject accounts = (JSONObject) new JSONParser().parse(json);
+            accounts.forEach((account, value) -> {
+                JSONObject snapshot = (JSONObject) value;
+                snapshots.put((String) account, new Snapshot((Long) snapshot.get("savedAt"),
+                        new ArrayList<>((JSONArray) snapshot.get("cookies"))));
+            });
+            LOG.info("Loaded session cookies of {} accounts from {}.", snapshots.size(), file);
+        } catch (IOException | GeneralSecurityException | ParseException | RuntimeException e) {
+            // Also the case when the key has changed; the next logins will replace the file.
+            LOG.warn("Unable to load session cookies from {}: {}", file, e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void store() {
+        if (file == null) {
+            return;
+        }
+        JSONObject accounts = new JSONObject();
+        snapshots.forEach((account, snapshot) -> {
+            JSONObject jo = new JSONObject();
+            jo.put("savedAt", snapshot.savedAt);
+            jo.put("cookies", snapshot.cookies);
+            accounts.put(account, jo);
+        });
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            byte[] salt = new byte[SALT_BYTES];
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(salt);
+            random.nextBytes(iv);
+            byte[] encrypted = cipher(Cipher.ENCRYPT_MODE, salt, iv).doFinal(accounts.toJSONString().getBytes(StandardCharsets.UTF_8));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(FORMAT_VERSION);
+                out.write(salt);
+                out.write(iv);
+                out.write(encrypted);
+            }
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                restrictToOwner(tempFile);
+                out.write(bytes.toByteArray());
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | GeneralSecurityException e) {
+            LOG.warn("Unable to store session cookies in {}: {}", file, e.getMessage());
+        }
+    }
+
+    private Cipher cipher(int mode, byte[] salt, byte[] iv) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(key, salt, KEY_ITERATIONS, KEY_BITS);
+        byte[] keyBytes = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new GCMParameterSpec(TAG_BITS, iv));
+        return cipher;
+    }
+
+    private static void restrictToOwner(File file) {
+        try {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            LOG.debug("Unable to restrict permissions of {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static class Snapshot {
+
+        final long savedAt;
+        final List<Map<String, Object>> cookies;
+
+        Snapshot(long savedAt, List<Map<String, Object>> cookies) {
+            this.savedAt = savedAt;
+            this.cookies = cookies;
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package nl.revolution.watchboard.plugins;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which dashboards and graphs are being watched, based on the status and image requests of the frontend.
+ * A dashboard counts as viewed while at least one viewer polled it within the viewer timeout.
+ */
+public class ViewerTracker {
+
+    private static final String UNKNOWN_VIEWER = "unknown";
+
+    private final Map<String, Map<String, Long>> dashboardViewers = new HashMap<>();
+    private final Map<String, Long> dashboardLastViewed = new HashMap<>();
+    private final Map<String, Long> graphLastViewed = new HashMap<>();
+    private long viewerTimeoutMillis;
+
+    public ViewerTracker(long viewerTimeoutMillis) {
+        this.viewerTimeoutMillis = viewerTimeoutMillis;
+    }
+
+    public synchronized void setViewerTimeoutMillis(long viewerTimeoutMillis) {
+        this.viewerTimeoutMillis = viewerTimeoutMillis;
+    }
+
+    /**
+     * @return true when nobody was watching the dashboard before this request
+     */
+    public synchronized boolean recordDashboardView(String dashboardId, String viewer, long now) {
+        boolean wasActive = isDashboardActive(dashboardId, now);
+        dashboardViewers.computeIfAbsent(dashboardId, id -> new HashMap<>())
+                .put(viewer == null ? UNKNOWN_VIEWER : viewer, now);
+        dashboardLastViewed.put(dashboardId, now);
+        return !wasActive;
+    }
+
+    /**
+     * @return true when the graph was not viewed recently before this request
+     */
+    public synchronized boolean recordGraphView(String graphId, long now) {
+        boolean wasViewed = isGraphViewed(graphId, now);
+        graphLastViewed.put(graphId, now);
+        return !wasViewed;
+    }
+
+    public synchronized boolean isDashboardActive(String dashboardId, long now) {
+        return getViewerCount(dashboardId, now) > 0;
+    }
+
+    public synchronized boolean isGraphViewed(String graphId, long now) {
+        Long lastViewed = graphLastViewed.get(graphId);
+        return lastViewed != null && now - lastViewed < viewerTimeoutMillis;
+    }
+
+    public synchronized int getViewerCount(String dashboardId, long now) {
+        Map<String, Long> viewers = dashboardViewers.get(dashboardId);
+        if (viewers == null) {
+            return 0;
+        }
+        viewers.values().removeIf(lastSeen -> now - lastSeen >= viewerTimeoutMillis);
+        return viewers.size();
+    }
+
+    public synchronized long getLastViewed(String dashboardId) {
+        return dashboardLastViewed.getOrDefault(dashboardId, 0L);
+    }
+
+}
@@ -1,12 +1,13 @@
 package nl.revolution.watchboard.plugins;
 
+import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 
 public interface WatchboardPlugin {
 
     void performLogin();
 
-    void performUpdate();
+    void performSingleUpdate(Graph graph);
 
     void shutdown();
 
@@ -14,6 +15,32 @@ public interface WatchboardPlugin {
 
     String getName();
 
+    Graph.Type getGraphType();
+
     int getUpdateInterval();
 
+    /**
+     * @return the page performSingleUpdate starts by loading, so it can be loaded in a spare tab ahead of time; null
+     * if the plugin can't be preloaded
+     */
+    default String getPreloadUrl(Graph graph) {
+        return null;
+    }
+
+    /**
+     * @return whether {@link #hasValidSession()} can tell if the browser is logged in; only then are the session
+     * cookies of a previous browser reused instead of logging in
+     */
+    default boolean hasSessionProbe() {
+        return false;
+    }
+
+    /**
+     * Cheap check whether the browser is logged in, e.g. with session cookies of a previous browser. Called instead
+     * of {@link #performLogin()}, so it leaves the browser ready for captures when it returns true.
+     */
+    default boolean hasValidSession() {
+        return false;
+    }
+
 }
@@ -1,9 +1,9 @@
 package nl.revolution.watchboard.plugins.cloudwatch;
 
 import nl.revolution.watchboard.Config;
-import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.PageReadiness;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.*;
@@ -15,6 +15,7 @@ import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
 
     private static final int MAX_GRAPH_LOADING_TIME_IN_SECONDS = 30;
+    private static final String LOADER_SELECTOR = ".cwdb-loader-container";
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCloudWatchPlugin.class);
 
@@ -22,8 +23,6 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
     protected Plugin plugin;
     protected WebDriverWrapper wrappedDriver;
 
-    protected boolean stop;
-
     public AbstractCloudWatchPlugin() {
         LOG.info("Starting CloudWatch plugin.");
         plugin = Config.getInstance().getPlugin(getGraphType());
@@ -33,56 +32,39 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
     public void performLogin() {
         LOG.info("Logging in to AWS console.");
         WebDriver driver = wrappedDriver.getDriver();
-        try {
-            driver.manage().window().setSize(new Dimension(800, 600));
-            driver.get(plugin.getLoginUrl());
-            doSleep(500);
-            driver.get("https://console.aws.amazon.com/console/home");
-            WebDriverUtils.verifyTitle(driver, "Amazon Web Services Sign-In", 3);
-            driver.findElement(By.id("username")).sendKeys(plugin.getUsername());
-            driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
-            driver.findElement(By.id("signin_button")).click();
-
-            // Wait for the login request to complete.
-            for (int i=0; i<10; i++) {
-                if (driver.getCurrentUrl().contains("signin.aws.amazon.com")) {
-                    // Still on the login page.
-                    LOG.debug("Waiting for login process to complete.");
-                    doSleep(500);
-                } else {
-                    break;
-                }
+        driver.manage().window().setSize(new Dimension(800, 600));
+        driver.get(plugin.getLoginUrl());
+        doSleep(500);
+        driver.get("https://console.aws.amazon.com/console/home");
+        WebDriverUtils.verifyTitle(driver, "Amazon Web Services Sign-In", 3);
+        driver.findElement(By.id("username")).sendKeys(plugin.getUsername());
+        driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
+        driver.findElement(By.id("signin_button")).click();
+
+        // Wait for the login request to complete.
+        for (int i=0; i<10; i++) {
+            if (driver.getCurrentUrl().contains("signin.aws.amazon.com")) {
+                // Still on the login page.
+                LOG.debug("Waiting for login process to complete.");
+                doSleep(500);
+            } else {
+                break;
             }
-
-        } catch (Exception e) {
-            LOG.error("Error logging in to AWS console: ", e);
-            LOG.info("Sleeping 10 seconds and trying again.");
-            doSleep(10000);
-            wrappedDriver.restart();
-            performLogin();
-            return;
         }
     }
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for " + getName() + " graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from AWS.");
-        Config.getInstance().getGrapsForType(getGraphType()).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
+    public boolean hasSessionProbe() {
+        return true;
+    }
 
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
+    @Override
+    public boolean hasValidSession() {
+        WebDriver driver = wrappedDriver.getDriver();
+        driver.manage().window().setSize(new Dimension(800, 600));
+        // Without a valid session, the console redirects to the sign-in page.
+        driver.get("https://console.aws.amazon.com/console/home");
+        return !driver.getCurrentUrl().contains("signin.aws.amazon.com");
     }
 
     protected void loadPageAsync(WebDriver driver, String url) {
@@ -100,31 +82,19 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
 
     protected boolean waitUntilGraphIsLoaded(String filename) {
         long loadingStart = System.currentTimeMillis();
-        WebDriver driver = wrappedDriver.getDriver();
-        while (true) {
-            boolean isLoading = visibleLoadingIcons(driver) > 0;
-            if (!isLoading) {
-                doSleep(250);
-                long loadTimeMS = System.currentTimeMillis() - loadingStart;
-                LOG.debug("Graph {} loaded in {} ms.", filename, loadTimeMS);
-                break;
-            }
-
-            long waitingForMS = System.currentTimeMillis() - loadingStart;
-            LOG.debug("Waiting until {} is loaded (waited for {} ms).", filename, waitingForMS);
-            if ((waitingForMS / 1000) > MAX_GRAPH_LOADING_TIME_IN_SECONDS) {
-                LOG.error("Max waiting time of {} seconds for loading graph expired, giving up.", MAX_GRAPH_LOADING_TIME_IN_SECONDS);
-                return false;
-            }
-            doSleep(100);
+        boolean loaded = PageReadiness.awaitPhase(wrappedDriver.getDriver(), getGraphType(), "graphLoading",
+                MAX_GRAPH_LOADING_TIME_IN_SECONDS, "document.querySelectorAll('" + LOADER_SELECTOR + "').length === 0");
+        if (!loaded) {
+            LOG.error("Max waiting time for loading graph {} expired, giving up.", filename);
+            return false;
         }
+        LOG.debug("Graph {} loaded in {} ms.", filename, System.currentTimeMillis() - loadingStart);
         return true;
     }
 
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -133,11 +103,4 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
     }
 
 
-    abstract Graph.Type getGraphType();
-    abstract void performSingleUpdate(Graph graph);
-
-    protected int visibleLoadingIcons(WebDriver driver) {
-        return WebDriverUtils.numberOfElements(driver, By.cssSelector(".cwdb-loader-container"));
-    }
-
 }
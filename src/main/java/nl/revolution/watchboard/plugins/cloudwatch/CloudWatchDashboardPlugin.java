@@ -1,6 +1,8 @@
 package nl.revolution.watchboard.plugins.cloudwatch;
 
 import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.PageReadiness;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.Select;
@@ -10,14 +12,14 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.time.LocalDateTime;
 
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 import static nl.revolution.watchboard.utils.WebDriverUtils.takeScreenShot;
 
 public class CloudWatchDashboardPlugin extends AbstractCloudWatchPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudWatchDashboardPlugin.class);
 
-    protected void performSingleUpdate(Graph graph) {
+    @Override
+    public void performSingleUpdate(Graph graph) {
         boolean executedSuccessfully = getDashboardScreenshot(graph.getUrl(),
                 graph.getBrowserWidth(),
                 graph.getBrowserHeight(),
@@ -35,8 +37,14 @@ public class CloudWatchDashboardPlugin extends AbstractCloudWatchPlugin {
             WebDriver driver = wrappedDriver.getDriver();
             LOG.debug("Starting update of {}", filename);
             driver.manage().window().setSize(new Dimension(width, height));
-            WebDriverUtils.fetchDummyPage(driver);
-            loadPageAsync(driver, reportUrl);
+            CaptureContext.phase("pageLoad");
+            if (!CaptureContext.isPreloaded(reportUrl)) {
+                WebDriverUtils.fetchDummyPage(driver);
+                loadPageAsync(driver, reportUrl);
+            }
+
+            // Track the requests that picking a time range triggers.
+            PageReadiness.install(driver);
 
             // Set time zone.
             WebElement timeRangeDropdown =  driver.findElement(By.cssSelector(".cwui-datepicker-dropdown-toggle"));
@@ -57,26 +65,13 @@ public class CloudWatchDashboardPlugin extends AbstractCloudWatchPlugin {
                     .orElseThrow(() -> new RuntimeException("Could not find button for timerage: " + timeRange))
                     .click();
 
-            // Next step: wait for the individual graphs to be loaded.
-            // First, wait up to two seconds for 'loading' indicators to appear.
-            doSleep(250);
-            for (int i=0; i<20; i++) {
-                int loading = visibleLoadingIcons(driver);
-                if (loading > 0) {
-                    // Loading icon found; stop waiting.
-                    break;
-                }
-
-                // Loading icon not (yet) found, wait a bit and retry.
-                doSleep(100);
-            }
-
             // Wait until all individual graphs are loaded.
             boolean graphLoaded = waitUntilGraphIsLoaded(filename);
             if (!graphLoaded) {
                 return false;
             }
 
+            CaptureContext.phase("screenshot");
             try {
                 takeScreenShot(driver, driver.findElement(By.className("react-grid-layout")), filename);
             } catch (IOException e) {
@@ -94,6 +89,11 @@ public class CloudWatchDashboardPlugin extends AbstractCloudWatchPlugin {
         return true;
     }
 
+    @Override
+    public String getPreloadUrl(Graph graph) {
+        return graph.getUrl();
+    }
+
     @Override
     public String getName() {
         return "CloudWatchDashboard";
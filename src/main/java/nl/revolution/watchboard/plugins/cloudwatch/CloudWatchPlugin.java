@@ -1,6 +1,8 @@
 package nl.revolution.watchboard.plugins.cloudwatch;
 
 import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.PageReadiness;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.Select;
 import org.slf4j.Logger;
@@ -15,7 +17,8 @@ public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudWatchPlugin.class);
 
-    protected void performSingleUpdate(Graph graph) {
+    @Override
+    public void performSingleUpdate(Graph graph) {
         boolean executedSuccessfully = getReportScreenshot(graph.getUrl(),
                 graph.getBrowserWidth(),
                 graph.getBrowserHeight(),
@@ -43,7 +46,13 @@ public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
             // String localURL = "http://localhost:" + Config.getInstance().getInt(Config.HTTP_PORT) + Config.getInstance().getContextRoot();
             // driver.get(localURL);
 
-            loadPageAsync(driver, reportUrl);
+            CaptureContext.phase("pageLoad");
+            if (!CaptureContext.isPreloaded(reportUrl)) {
+                loadPageAsync(driver, reportUrl);
+            }
+
+            // Track the requests that changing the time zone triggers.
+            PageReadiness.install(driver);
 
             // Set time zone.
             WebElement timeRangeDropdown =  driver.findElement(By.cssSelector(".cwui-datepicker-dropdown-toggle"));
@@ -64,6 +73,7 @@ public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
                 return false;
             }
 
+            CaptureContext.phase("screenshot");
             try {
                 takeScreenShot(driver, driver.findElement(By.cssSelector(".cwdb-standalone-graph-container-graph")), filename);
             } catch (IOException e) {
@@ -81,6 +91,11 @@ public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
         return true;
     }
 
+    @Override
+    public String getPreloadUrl(Graph graph) {
+        return graph.getUrl();
+    }
+
     @Override
     public String getName() {
         return "CloudWatch";
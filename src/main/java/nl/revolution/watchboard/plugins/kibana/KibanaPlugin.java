@@ -4,6 +4,8 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.PageProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.*;
@@ -16,17 +18,12 @@ import java.time.LocalDateTime;
 
 import static java.time.temporal.ChronoUnit.SECONDS;
 import static nl.revolution.watchboard.utils.WebDriverWaitBuilder.let;
-import static org.openqa.selenium.support.ui.ExpectedConditions.not;
-import static org.openqa.selenium.support.ui.ExpectedConditions.presenceOfAllElementsLocatedBy;
-import static org.openqa.selenium.support.ui.ExpectedConditions.visibilityOfAllElementsLocatedBy;
 
 public class KibanaPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(KibanaPlugin.class);
     private final Graph.Type type;
 
-    private boolean stop;
-
     private Plugin plugin;
     private WebDriverWrapper wrappedDriver;
 
@@ -39,62 +36,43 @@ public class KibanaPlugin implements WatchboardPlugin {
     @Override
     public void performLogin() {
         LOG.info("Logging in to Kibana.");
-        try {
-            WebDriver driver = wrappedDriver.getDriver();
-            driver.manage().window().setSize(new Dimension(2000, 1000));
-            driver.get(plugin.getLoginUrl());
-            WebDriverUtils.verifyTitle(driver, "Kibana", 10);
-        } catch (Exception e) {
-            LOG.error("Error while logging in to Kibana: ", e);
-        }
+        WebDriver driver = wrappedDriver.getDriver();
+        driver.manage().window().setSize(new Dimension(2000, 1000));
+        driver.get(plugin.getLoginUrl());
+        WebDriverUtils.verifyTitle(driver, "Kibana", 10);
 
         LOG.info("Logged in to Kibana.");
     }
 
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Kibana graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Kibana.");
-        Config.getInstance().getGrapsForType(type).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
-
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
-    }
-
-
-    private void performSingleUpdate(Graph graph) {
+    public void performSingleUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
         driver.manage().window().setSize(new Dimension(2000, 1000));
-        WebDriverUtils.fetchDummyPage(driver);
+        boolean preloaded = CaptureContext.isPreloaded(graph.getUrl());
+        if (!preloaded) {
+            WebDriverUtils.fetchDummyPage(driver);
+        }
 
         try {
             WebDriverUtils.disableTimeouts(driver);
 
-            try {
-                driver.get(graph.getUrl());
-            } catch (TimeoutException ignored) {
-                // Expected, do nothing.
+            if (!preloaded) {
+                try {
+                    driver.get(graph.getUrl());
+                } catch (TimeoutException ignored) {
+                    // Expected, do nothing.
+                }
             }
 
-            let(driver).wait(15, SECONDS).on(currentUrlIs(graph.getUrl()));
-            let(driver).wait(30, SECONDS).on(visibilityOfAllElementsLocatedBy(By.tagName("visualize")));
-            let(driver).wait(10, SECONDS).on(visibilityOfAllElementsLocatedBy(By.className("visualize-chart")));
-            let(driver).wait(30, SECONDS).on(not(presenceOfAllElementsLocatedBy(By.className("loading"))));
-            let(driver).wait(5, SECONDS).on(nonTransparant(By.className("visualize-chart")));
+            waitForPhase(driver, "pageLoad", 15, currentUrlIs(graph.getUrl()));
+            waitForPhase(driver, "visualize", 30, allVisible("visualize"));
+            waitForPhase(driver, "chart", 10, allVisible(".visualize-chart"));
+            waitForPhase(driver, "loading", 30, webDriver -> PageProbe.on(webDriver).count("loading", ".loading").run().count("loading") == 0);
+            waitForPhase(driver, "opacity", 5, nonTransparant(".visualize-chart"));
 
+            CaptureContext.phase("screenshot");
             getKibanaScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
             plugin.setTsLastUpdated(LocalDateTime.now());
 
@@ -106,8 +84,23 @@ public class KibanaPlugin implements WatchboardPlugin {
         }
     }
 
-    private ExpectedCondition<Boolean> nonTransparant(By locator) {
-        return webDriver -> webDriver.findElements(locator).stream().allMatch(element -> element.getCssValue("opacity").equals(String.valueOf(1)));
+    private void waitForPhase(WebDriver driver, String phase, long maxSeconds, ExpectedCondition<?> condition) {
+        CaptureContext.phase(phase);
+        let(driver).wait(CaptureContext.timeoutSeconds(phase, maxSeconds), SECONDS).on(condition);
+    }
+
+    private ExpectedCondition<Boolean> allVisible(String cssSelector) {
+        return webDriver -> {
+            PageProbe.Result probe = PageProbe.on(webDriver).count("all", cssSelector).visible("visible", cssSelector).run();
+            return probe.count("all") > 0 && probe.count("visible") == probe.count("all");
+        };
+    }
+
+    private ExpectedCondition<Boolean> nonTransparant(String cssSelector) {
+        return webDriver -> {
+            PageProbe.Result probe = PageProbe.on(webDriver).count("all", cssSelector).opaque("opaque", cssSelector).run();
+            return probe.count("opaque") == probe.count("all");
+        };
     }
 
     private ExpectedCondition<Boolean> currentUrlIs(String url) {
@@ -129,7 +122,6 @@ public class KibanaPlugin implements WatchboardPlugin {
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -137,11 +129,21 @@ public class KibanaPlugin implements WatchboardPlugin {
         this.wrappedDriver = driver;
     }
 
+    @Override
+    public String getPreloadUrl(Graph graph) {
+        return graph.getUrl();
+    }
+
     @Override
     public String getName() {
         return "Kibana";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return type;
+    }
+
     @Override
     public int getUpdateInterval() {
         return plugin.getUpdateIntervalSeconds();
@@ -4,6 +4,9 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.PageProbe;
+import nl.revolution.watchboard.utils.PageReadiness;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.By;
@@ -22,8 +25,8 @@ import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 public class PerformrPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(PerformrPlugin.class);
-
-    private boolean stop;
+    private static final String COMPONENT_SELECTION = "Selecteer component";
+    private static final long COMPONENT_TIMEOUT_SECONDS = 5;
 
     private Plugin performrPlugin;
     private WebDriverWrapper wrappedDriver;
@@ -37,26 +40,22 @@ public class PerformrPlugin implements WatchboardPlugin {
     @Override
     public void performLogin() {
         LOG.info("Logging in to Performr.");
-        try {
-            WebDriver driver = wrappedDriver.getDriver();
+        WebDriver driver = wrappedDriver.getDriver();
 
-            driver.manage().window().setSize(new Dimension(2000, 1000));
+        driver.manage().window().setSize(new Dimension(2000, 1000));
 
-            driver.get(performrPlugin.getLoginUrl());
+        driver.get(performrPlugin.getLoginUrl());
 
-            driver.findElement(By.id("username")).sendKeys(performrPlugin.getUsername());
-            doSleep(1000);
-            driver.findElement(By.id("password")).sendKeys(performrPlugin.getPassword());
-            doSleep(1000);
+        driver.findElement(By.id("username")).sendKeys(performrPlugin.getUsername());
+        doSleep(1000);
+        driver.findElement(By.id("password")).sendKeys(performrPlugin.getPassword());
+        doSleep(1000);
 
-            driver.findElements(By.tagName("input")).stream().forEach(input -> {
-                if ("Inloggen".equals(input.getAttribute("value"))) {
-                    input.click();
-                }
-            });
-        } catch (Exception e) {
-            LOG.error("Error while logging in to Performr: ", e);
-        }
+        driver.findElements(By.tagName("input")).stream().forEach(input -> {
+            if ("Inloggen".equals(input.getAttribute("value"))) {
+                input.click();
+            }
+        });
 
         LOG.info("Logged in to Performr.");
 
@@ -64,76 +63,58 @@ public class PerformrPlugin implements WatchboardPlugin {
 
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Performr graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Performr.");
-        Config.getInstance().getGrapsForType(Graph.Type.PERFORMR).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph, false);
-                }
-            }
-        );
+    public boolean hasSessionProbe() {
+        return true;
+    }
 
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
+    @Override
+    public boolean hasValidSession() {
+        WebDriver driver = wrappedDriver.getDriver();
+        driver.manage().window().setSize(new Dimension(2000, 1000));
+        driver.get(performrPlugin.getLoginUrl());
+        // The login page shows the login form, the application its component selection.
+        PageReadiness.await(driver, Graph.Type.PERFORMR, COMPONENT_TIMEOUT_SECONDS, "document.getElementById('username') || "
+                + "Array.prototype.some.call(document.getElementsByTagName('span'), function (span) { return span.textContent.trim() === '" + COMPONENT_SELECTION + "'; })");
+        return PageProbe.on(driver).count("loginForm", "#username").run().count("loginForm") == 0;
     }
 
 
-    private void performSingleUpdate(Graph graph, boolean isRetry) {
+    @Override
+    public void performSingleUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
         driver.manage().window().setSize(new Dimension(2000, 1000));
         driver.get(performrPlugin.getLoginUrl());
 
-        long loadingStart = System.currentTimeMillis();
-        boolean found = false;
-        while (!found) {
-            List<WebElement> spans = driver.findElements(By.tagName("span"));
-            for (WebElement span : spans) {
-                if ("Selecteer component".equals(span.getText())) {
-                    span.click();
-                    found = true;
-                }
-            }
-            // LOG.debug("Did not find Performr component selection (yet), waiting.");
-            doSleep(1000);
-            long waitingForMS = System.currentTimeMillis() - loadingStart;
-            if ((waitingForMS / 1000) > 10) {
-                // Waited for over 10 seconds; break.
-                LOG.error("Timed out waiting for Performr component selection to appear.");
-
-                // Re-login to fix issue.
-                performLogin();
-                if (!isRetry) {
-                    // if this isn't a retry already, try once again.
-                    performSingleUpdate(graph, true);
-                }
-                return;
-            }
+        if (!PageReadiness.awaitPhase(driver, Graph.Type.PERFORMR, "componentSelection", 10,
+                "Array.prototype.some.call(document.getElementsByTagName('span'), function (span) { return span.textContent.trim() === '" + COMPONENT_SELECTION + "'; })")) {
+            LOG.error("Timed out waiting for Performr component selection to appear.");
 
+            // Likely logged out; the session logs in again in a standby browser once graphs keep failing, and the
+            // scheduler retries the capture with backoff.
+            throw new IllegalStateException("Performr component selection did not appear in time.");
         }
+        driver.findElements(By.tagName("span")).stream()
+                .filter(span -> COMPONENT_SELECTION.equals(span.getText()))
+                .forEach(WebElement::click);
 
         // Disable all components.
+        CaptureContext.phase("components");
         getComponentCheckbox("Alle").click();
-        doSleep(500);
+        PageReadiness.await(driver, Graph.Type.PERFORMR, COMPONENT_TIMEOUT_SECONDS, PageReadiness.ANY);
 
         // Select project components.
         graph.getComponents().stream().forEach(component -> {
             WebElement componentCheckbox = getComponentCheckbox(component);
             if (componentCheckbox != null) {
                 componentCheckbox.click();
-                doSleep(500);
+                PageReadiness.await(driver, Graph.Type.PERFORMR, COMPONENT_TIMEOUT_SECONDS, PageReadiness.ANY);
             } else {
                 LOG.error("Component '" + component + "' not found!");
             }
         });
 
+        CaptureContext.phase("screenshot");
         getPerformrScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
 
         performrPlugin.setTsLastUpdated(LocalDateTime.now());
@@ -149,7 +130,7 @@ public class PerformrPlugin implements WatchboardPlugin {
         driver.manage().window().setSize(size);
 
         driver.manage().window().setSize(new Dimension(width, height));
-        doSleep(500);
+        PageReadiness.await(driver, Graph.Type.PERFORMR, COMPONENT_TIMEOUT_SECONDS, PageReadiness.ANY);
         try {
             WebDriverUtils.takeScreenShot(driver, driver.findElement(By.id("heatmap-holder")), filename);
         } catch (IOException e) {
@@ -175,7 +156,6 @@ public class PerformrPlugin implements WatchboardPlugin {
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -188,6 +168,11 @@ public class PerformrPlugin implements WatchboardPlugin {
         return "Performr";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return Graph.Type.PERFORMR;
+    }
+
     @Override
     public int getUpdateInterval() {
         return performrPlugin.getUpdateIntervalSeconds();
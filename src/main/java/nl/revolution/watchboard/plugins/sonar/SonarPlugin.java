@@ -4,6 +4,8 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.CaptureContext;
+import nl.revolution.watchboard.utils.PageReadiness;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.*;
@@ -14,14 +16,10 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
 
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
-
 public class SonarPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(SonarPlugin.class);
 
-    private boolean stop;
-
     private Plugin plugin;
     private WebDriverWrapper wrappedDriver;
 
@@ -33,56 +31,55 @@ public class SonarPlugin implements WatchboardPlugin {
     @Override
     public void performLogin() {
         LOG.info("Logging in to Sonar.");
-        try {
-            WebDriver driver = wrappedDriver.getDriver();
-            driver.manage().window().setSize(new Dimension(2000, 1000));
-            WebDriverUtils.fetchDummyPage(driver);
-            driver.get(plugin.getLoginUrl());
-            WebDriverUtils.verifyTitle(driver, "SonarQube", 10);
-
-            driver.findElement(By.id("login")).sendKeys(plugin.getUsername());
-            driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
-            driver.findElement(By.id("password")).submit();
-        } catch (Exception e) {
-            LOG.error("Error while logging in to Sonar: ", e);
-        }
+        WebDriver driver = wrappedDriver.getDriver();
+        driver.manage().window().setSize(new Dimension(2000, 1000));
+        WebDriverUtils.fetchDummyPage(driver);
+        driver.get(plugin.getLoginUrl());
+        WebDriverUtils.verifyTitle(driver, "SonarQube", 10);
+
+        driver.findElement(By.id("login")).sendKeys(plugin.getUsername());
+        driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
+        driver.findElement(By.id("password")).submit();
 
         LOG.info("Logged in to Sonar.");
     }
 
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Sonar graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Sonar.");
-        Config.getInstance().getGrapsForType(Graph.Type.SONAR).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
-
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
+    public boolean hasSessionProbe() {
+        return true;
+    }
+
+    @Override
+    public boolean hasValidSession() {
+        WebDriver driver = wrappedDriver.getDriver();
+        driver.manage().window().setSize(new Dimension(2000, 1000));
+        String loginUrl = plugin.getLoginUrl();
+        int sessionsPath = loginUrl.indexOf("/sessions/");
+        String baseUrl = sessionsPath < 0 ? loginUrl.replaceAll("/+$", "") : loginUrl.substring(0, sessionsPath);
+        // Unlike /api/authentication/validate, which also says valid for anonymous users, this tells who is logged in.
+        driver.get(baseUrl + "/api/users/current");
+        return driver.getPageSource().replaceAll("\\s", "").contains("\"isLoggedIn\":true");
     }
 
 
-    private void performSingleUpdate(Graph graph) {
+    @Override
+    public void performSingleUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
         driver.manage().window().setSize(new Dimension(1500, 1000));
 
-        WebDriverUtils.fetchDummyPage(driver);
-        driver.get(graph.getUrl());
+        CaptureContext.phase("pageLoad");
+        if (!CaptureContext.isPreloaded(graph.getUrl())) {
+            WebDriverUtils.fetchDummyPage(driver);
+            driver.get(graph.getUrl());
+        }
 
-        // Wait for the screen to load.
-        doSleep(500);
+        // Wait for the screen to load. Capture what is there after the timeout, like before the readiness check.
+        if (!PageReadiness.awaitPhase(driver, Graph.Type.SONAR, "overview", 30,
+                "document.querySelector('.overview-domains-list .overview-card') !== null")) {
+            LOG.warn("No Sonar overview cards for {} after waiting, capturing anyway.", graph.getId());
+        }
 
         // Fix flexbox CSS issues
         FlexboxCssFix.flexboxFix(driver);
@@ -101,9 +98,10 @@ public class SonarPlugin implements WatchboardPlugin {
             executor.executeScript("arguments[0].style.display='none';", tile);
         }
 
-        // Wait for the screen to load.
-        doSleep(500);
+        // Wait for the layout to settle.
+        PageReadiness.awaitPhase(driver, Graph.Type.SONAR, "layout", 5, PageReadiness.ANY);
 
+        CaptureContext.phase("screenshot");
         getSonarScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
 
         plugin.setTsLastUpdated(LocalDateTime.now());
@@ -123,7 +121,6 @@ public class SonarPlugin implements WatchboardPlugin {
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -131,11 +128,21 @@ public class SonarPlugin implements WatchboardPlugin {
         this.wrappedDriver = driver;
     }
 
+    @Override
+    public String getPreloadUrl(Graph graph) {
+        return graph.getUrl();
+    }
+
     @Override
     public String getName() {
         return "Sonar";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return Graph.Type.SONAR;
+    }
+
     @Override
     public int getUpdateInterval() {
         return plugin.getUpdateIntervalSeconds();
@@ -0,0 +1,384 @@
+package nl.revolution.watchboard.proxy;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Forward proxy for the browsers of a plugin. Static assets (scripts, stylesheets, fonts, images) are kept in a
+ * {@link ContentStore} on disk, so a restarted browser doesn't download the same bundles again; requests to hosts on
+ * the plugin's blocklist (analytics, beacons) are refused right away.
+ *
+ * HTTPS requests arrive as CONNECT tunnels. Those are passed through unopened: the blocklist applies to them, but their
+ * content can't be cached without intercepting TLS.
+ *
+ * Every plugin gets its own listener (and so its own blocklist and metrics); the content store is shared.
+ */
+public class CachingProxy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingProxy.class);
+    private static final int SOCKET_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int DEFAULT_CACHE_MAX_MEGABYTES = 256;
+    private static final int DEFAULT_CACHE_MAX_AGE_HOURS = 24;
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "js", "css", "png", "gif", "jpg", "jpeg", "svg", "ico", "woff", "woff2", "ttf", "eot"));
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "proxy-authorization", "proxy-authenticate", "te",
+            "trailer", "transfer-encoding", "upgrade", "host", "content-length"));
+
+    private static final Map<Graph.Type, CachingProxy> PROXIES = new HashMap<>();
+    private static ContentStore sharedStore;
+
+    private final String name;
+    private final ContentStore store;
+    private final Supplier<Collection<String>> blockedHosts;
+    private final long maxAgeMillis;
+    private final Clock clock;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    CachingProxy(String name, ContentStore store, Supplier<Collection<String>> blockedHosts, long maxAgeMillis,
+                 Clock clock) throws IOException {
+        this.name = name;
+        this.store = store;
+        this.blockedHosts = blockedHosts;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::acceptConnections);
+
+        Metrics.getInstance().gauge("proxy.hitRatePercent." + name, () -> {
+            long hits = Metrics.getInstance().getCount("proxy.hits." + name);
+            long lookups = hits + Metrics.getInstance().getCount("proxy.misses." + name);
+            return lookups == 0 ? 0 : 100 * hits / lookups;
+        });
+        LOG.info("Proxy for {} listening on port {}.", name, getPort());
+    }
+
+    public static boolean isEnabled() {
+        return Config.getInstance().getBoolean(Config.PROXY_ENABLED, false);
+    }
+
+    /**
+     * @return the proxy for the browsers of the plugin, started on first use
+     */
+    public static synchronized CachingProxy forPlugin(Graph.Type type) throws IOException {
+        CachingProxy proxy = PROXIES.get(type);
+        if (proxy == null) {
+            Config config = Config.getInstance();
+            if (sharedStore == null) {
+                String path = config.getString(Config.PROXY_CACHE_PATH);
+                File directory = path == null ? new File(config.getString(Config.TEMP_PATH), "proxy-cache") : new File(path);
+                sharedStore = new ContentStore(directory,
+                        config.getInt(Config.PROXY_CACHE_MAX_MEGABYTES, DEFAULT_CACHE_MAX_MEGABYTES) * 1024L * 1024L);
+                ContentStore store = sharedStore;
+                Metrics.getInstance().gauge("proxy.cache.megabytes", () -> store.getSizeBytes() / (1024 * 1024));
+                Metrics.getInstance().gauge("proxy.cache.entries", store::getEntryCount);
+            }
+            long maxAgeMillis = config.getInt(Config.PROXY_CACHE_MAX_AGE_HOURS, DEFAULT_CACHE_MAX_AGE_HOURS) * 60 * 60 * 1000L;
+            proxy = new CachingProxy(type.toString(), sharedStore, () -> {
+                Plugin plugin = Config.getInstance().getPlugin(type);
+                return plugin == null ? Collections.emptyList() : plugin.getBlockedHosts();
+            }, maxAgeMillis, Clock.systemUTC());
+            PROXIES.put(type, proxy);
+        }
+        return proxy;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.warn("Error while closing proxy for {}: {}", name, e.getMessage());
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            } catch (SocketException e) {
+                // Closed by stop().
+            } catch (IOException e) {
+                LOG.error("Error while accepting proxy connection: ", e);
+            }
+        }
+    }
+
+    /**
+     * Handles a single request per connection; the browser opens a new connection for the next one.
+     */
+    private void handle(Socket socket) {
+        try (Socket client = socket) {
+            client.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+            String[] request = requestLine.split(" ");
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.merge(line.substring(0, colon).trim(), line.substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+                }
+            }
+            if (request.length < 2) {
+                writeStatus(out, 400, "Bad Request");
+                return;
+            }
+
+            Metrics.getInstance().increment("proxy.requests." + name);
+            if ("CONNECT".equals(request[0])) {
+                tunnel(client, in, out, request[1]);
+            } else {
+                forward(in, out, request[0], request[1], headers);
+            }
+        } catch (IOException e) {
+            LOG.debug("Proxy connection for {} failed: {}", name, e.getMessage());
+        }
+    }
+
+    private void tunnel(Socket client, InputStream in, OutputStream out, String target) throws IOException {
+        int colon = target.lastIndexOf(':');
+        String host = colon < 0 ? target : target.substring(0, colon);
+        int port;
+        try {
+            port = colon < 0 ? 443 : Integer.parseInt(target.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            writeStatus(out, 400, "Bad Request");
+            return;
+        }
+        if (isBlocked(host)) {
+            writeStatus(out, 403, "Blocked");
+            return;
+        }
+
+        Metrics.getInstance().increment("proxy.tunnels." + name);
+        try (Socket upstream = new Socket(host, port)) {
+            upstream.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            executor.execute(() -> pump(in, upstream));
+            IOUtils.copy(upstream.getInputStream(), client.getOutputStream());
+        }
+    }
+
+    private void pump(InputStream in, Socket upstream) {
+        try {
+            IOUtils.copy(in, upstream.getOutputStream());
+            upstream.shutdownOutput();
+        } catch (IOException e) {
+            // The tunnel is closed from the other side.
+        }
+    }
+
+    private void forward(InputStream in, OutputStream out, String method, String target,
+                         Map<String, String> headers) throws IOException {
+        URL url;
+        try {
+            url = new URL(target);
+        } catch (MalformedURLException e) {
+            writeStatus(out, 400, "Bad Request");
+            return;
+        }
+        int contentLength;
+        try {
+            contentLength = headers.containsKey("Content-Length") ? Integer.parseInt(headers.get("Content-Length")) : 0;
+        } catch (NumberFormatException e) {
+            contentLength = -1;
+        }
+        if (contentLength < 0) {
+            writeStatus(out, 400, "Bad Request");
+            return;
+        }
+        if (isBlocked(url.getHost())) {
+            writeStatus(out, 403, "Blocked");
+            return;
+        }
+
+        boolean get = "GET".equals(method);
+        if (get) {
+            ContentStore.Entry cached = store.get(target, clock.millis());
+            if (cached != null) {
+                Metrics.getInstance().increment("proxy.hits." + name);
+                Metrics.getInstance().add("proxy.bytesFromCache." + name, cached.body.length);
+                writeResponse(out, cached.status, cached.statusMessage, cached.headers, cached.body);
+                return;
+            }
+            Metrics.getInstance().increment("proxy.misses." + name);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(SOCKET_TIMEOUT_MILLIS);
+        connection.setReadTimeout(SOCKET_TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        headers.forEach((header, value) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(header.toLowerCase(Locale.ROOT))) {
+                connection.setRequestProperty(header, value);
+            }
+        });
+        if (contentLength > 0) {
+            byte[] body = new byte[contentLength];
+            new DataInputStream(in).readFully(body);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(contentLength);
+            connection.getOutputStream().write(body);
+        }
+
+        int status = connection.getResponseCode();
+        List<String[]> responseHeaders = new ArrayList<>();
+        connection.getHeaderFields().forEach((header, values) -> {
+            if (header != null && !HOP_BY_HOP_HEADERS.contains(header.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> responseHeaders.add(new String[]{header, value}));
+            }
+        });
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        if (body != null && !"HEAD".equals(method)) {
+            try (InputStream responseBody = body) {
+                IOUtils.copy(responseBody, bodyBytes);
+            }
+        }
+        Metrics.getInstance().add("proxy.bytesFromUpstream." + name, bodyBytes.size());
+
+        String statusMessage = connection.getResponseMessage() == null ? "" : connection.getResponseMessage();
+        long expiresAt = get && status == 200 ? expiresAt(url, connection, bodyBytes.size()) : 0;
+        if (expiresAt > 0) {
+            try {
+                store.put(new ContentStore.Entry(target, expiresAt, status, statusMessage, responseHeaders, bodyBytes.toByteArray()));
+            } catch (IOException e) {
+                LOG.warn("Unable to cache {}: {}", target, e.getMessage());
+            }
+        }
+        writeResponse(out, status, statusMessage, responseHeaders, bodyBytes.toByteArray());
+    }
+
+    /**
+     * @return until when the response may be served from the cache, or 0 if it is not to be cached
+     */
+    private long expiresAt(URL url, HttpURLConnection connection, int size) {
+        String cacheControl = String.valueOf(connection.getHeaderField("Cache-Control")).toLowerCase(Locale.ROOT);
+        String vary = connection.getHeaderField("Vary");
+        if (cacheControl.contains("no-store") || cacheControl.contains("no-cache") || cacheControl.contains("private")
+                || connection.getHeaderField("Set-Cookie") != null
+                || (vary != null && !vary.trim().equalsIgnoreCase("Accept-Encoding"))
+                || size > store.getMaxBytes() / 8) {
+            return 0;
+        }
+
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        long ageMillis;
+        if (maxAge.find()) {
+            ageMillis = Math.min(maxAgeMillis, Long.parseLong(maxAge.group(1)) * 1000);
+        } else if (STATIC_EXTENSIONS.contains(extension(url.getPath()))) {
+            ageMillis = maxAgeMillis;
+        } else {
+            return 0;
+        }
+        return ageMillis > 0 ? clock.millis() + ageMillis : 0;
+    }
+
+    private boolean isBlocked(String host) {
+        String lowerCaseHost = host.toLowerCase(Locale.ROOT);
+        for (String blockedHost : blockedHosts.get()) {
+            String blocked = blockedHost.toLowerCase(Locale.ROOT);
+            if (lowerCaseHost.equals(blocked) || lowerCaseHost.endsWith("." + blocked)) {
+                Metrics.getInstance().increment("proxy.blocked." + name);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String extension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot < path.lastIndexOf('/') || dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static void writeStatus(OutputStream out, int status, String message) throws IOException {
+        writeResponse(out, status, message, Collections.emptyList(), new byte[0]);
+    }
+
+    private static void writeResponse(OutputStream out, int status, String message, List<String[]> headers,
+                                      byte[] body) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(message).append("\r\n");
+        headers.forEach(header -> head.append(header[0]).append(": ").append(header[1]).append("\r\n"));
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString("ISO-8859-1");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+}
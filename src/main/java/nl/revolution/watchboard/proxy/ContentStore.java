@@ -0,0 +1,224 @@
+package nl.revolution.watchboard.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk store of cached responses, one file per url, evicting the least recently used entries once the store grows
+ * beyond its maximum size. The files outlive the process, so the cache survives browser and server restarts; the
+ * access order is kept in the modification times of the files.
+ */
+class ContentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentStore.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // Entry file name -> size in bytes, least recently used first.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    ContentStore(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory + ".");
+        }
+        // Left behind by writes that were interrupted by a crash.
+        for (File tempFile : directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX))) {
+            tempFile.delete();
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            index.put(file.getName(), file.length());
+            sizeBytes += file.length();
+        }
+        evict();
+        LOG.info("Proxy cache in {} holds {} entries ({} kB).", directory, index.size(), sizeBytes / 1024);
+    }
+
+    /**
+     * @return the cached response for the url, or null if there is none or it has expired
+     */
+    Entry get(String url, long now) {
+        String fileName = fileName(url);
+        File file = new File(directory, fileName);
+        InputStream in;
+        synchronized (this) {
+            // Looking up the entry also marks it as most recently used.
+            if (index.get(fileName) == null) {
+                return null;
+            }
+            // Opened under the lock, so an eviction can't delete the file first; once open, it can be read regardless.
+            try {
+                in = Files.newInputStream(file.toPath());
+            } catch (NoSuchFileException e) {
+                remove(fileName);
+                return null;
+            } catch (IOException e) {
+                LOG.warn("Unable to open cached {}: {}", url, e.getMessage());
+                remove(fileName);
+                return null;
+            }
+        }
+        Entry entry;
+        try {
+            entry = read(in);
+        } catch (IOException e) {
+            LOG.warn("Unable to read cached {}: {}", url, e.getMessage());
+            remove(fileName);
+            return null;
+        }
+        if (!url.equals(entry.url) || entry.expiresAt <= now) {
+            remove(fileName);
+            return null;
+        }
+        file.setLastModified(now);
+        return entry;
+    }
+
+    void put(Entry entry) throws IOException {
+        String fileName = fileName(entry.url);
+        File file = new File(directory, fileName);
+        // Browsers may fetch the same url at the same time; each write gets a file of its own until it is complete.
+        File tempFile = Files.createTempFile(directory.toPath(), fileName, TEMP_SUFFIX).toFile();
+        long size;
+        try {
+            write(entry, tempFile);
+            size = tempFile.length();
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        synchronized (this) {
+            Long previousSize = index.put(fileName, size);
+            sizeBytes += size - (previousSize == null ? 0 : previousSize);
+            evict();
+        }
+    }
+
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    synchronized int getEntryCount() {
+        return index.size();
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private synchronized void remove(String fileName) {
+        Long size = index.remove(fileName);
+        if (size != null) {
+            sizeBytes -= size;
+            new File(directory, fileName).delete();
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            sizeBytes -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            return String.format("%040x", new BigInteger(1, digest)) + SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(Entry entry, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(entry.url);
+            out.writeLong(entry.expiresAt);
+            out.writeInt(entry.status);
+            out.writeUTF(entry.statusMessage);
+            out.writeInt(entry.headers.size());
+            for (String[] header : entry.headers) {
+                out.writeUTF(header[0]);
+                out.writeUTF(header[1]);
+            }
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        }
+    }
+
+    private static Entry read(InputStream source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(source))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown cache format.");
+            }
+            String url = in.readUTF();
+            long expiresAt = in.readLong();
+            int status = in.readInt();
+            String statusMessage = in.readUTF();
+            int headerCount = in.readInt();
+            List<String[]> headers = new ArrayList<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(new String[]{in.readUTF(), in.readUTF()});
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(url, expiresAt, status, statusMessage, headers, body);
+        }
+    }
+
+    static class Entry {
+
+        final String url;
+        final long expiresAt;
+        final int status;
+        final String statusMessage;
+        final List<String[]> headers;
+        final byte[] body;
+
+        Entry(String url, long expiresAt, int status, String statusMessage, List<String[]> headers, byte[] body) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+            this.status = status;
+            this.statusMessage = statusMessage;
+            this.headers = headers;
+            this.body = body;
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * State of the capture running on the current thread: its cancellation flag, its hard deadline and the latency
+ * history of its phases.
+ *
+ * The sleeps and waits in {@link WebDriverUtils} and {@link WebDriverWaitBuilder} check the context, so a cancelled
+ * or overdue capture stops at the next wait instead of running to completion. Plugins mark the phases of a capture
+ * with {@link #phase(String)} and ask for their timeouts with {@link #timeoutSeconds(String, long)}: once a phase
+ * has enough history, its timeout is the p99 of earlier runs times a factor, clamped between a minimum and the
+ * plugin's own (former hard-coded) maximum. Outside a capture, the maximum is used.
+ *
+ * Image work handed off to the {@link ScreenshotPipeline} is tracked here too, so the worker knows when the capture
+ * has actually been published, and so are the WebDriver commands the capture sends (see {@link TimedCommandExecutor}).
+ */
+public class CaptureContext {
+
+    private static final ThreadLocal<CaptureContext> CURRENT = new ThreadLocal<>();
+    private static final int MIN_SAMPLES = 20;
+
+    private final BooleanSupplier cancelled;
+    private final Map<String, LatencyHistogram> phaseLatency;
+    private final Map<String, LatencyHistogram> commandLatency;
+    private final int timeoutFactor;
+    private final long minTimeoutMillis;
+    private final long deadline;
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private final List<CompletableFuture<Void>> imageWork = new ArrayList<>();
+    private final Map<String, long[]> commands = new TreeMap<>();
+    private String currentPhase;
+    private String preloadedUrl;
+    private long phaseStartedAt;
+
+    private CaptureContext(BooleanSupplier cancelled, Map<String, LatencyHistogram> phaseLatency,
+                           Map<String, LatencyHistogram> commandLatency, int timeoutFactor, long minTimeoutMillis,
+                           long deadline) {
+        this.cancelled = cancelled;
+        this.phaseLatency = phaseLatency;
+        this.commandLatency = commandLatency;
+        this.timeoutFactor = timeoutFactor;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param phaseLatency per-phase history of the graph being captured; updated when the capture succeeds
+     * @param commandLatency per-command history of the graph being captured; updated with every command
+     * @param deadline absolute time (epoch millis) after which the capture is aborted
+     */
+    public static void begin(BooleanSupplier cancelled, Map<String, LatencyHistogram> phaseLatency,
+                             Map<String, LatencyHistogram> commandLatency, int timeoutFactor, long minTimeoutMillis,
+                             long deadline) {
+        CURRENT.set(new CaptureContext(cancelled, phaseLatency, commandLatency, timeoutFactor, minTimeoutMillis, deadline));
+    }
+
+    /**
+     * Ends the capture on this thread. Phase durations only become history for successful captures, so failures
+     * (which typically ran into a timeout) don't stretch the timeouts of later captures.
+     */
+    public static void end(boolean success) {
+        CaptureContext context = CURRENT.get();
+        CURRENT.remove();
+        if (context == null || !success) {
+            return;
+        }
+        context.finishPhase(System.currentTimeMillis());
+        context.phaseMillis.forEach((phase, millis) ->
+                context.phaseLatency.computeIfAbsent(phase, name -> new LatencyHistogram()).record(millis));
+    }
+
+    /**
+     * Marks the start of a new phase of the current capture; the previous phase ends here.
+     */
+    public static void phase(String name) {
+        CaptureContext context = CURRENT.get();
+        if (context != null) {
+            long now = System.currentTimeMillis();
+            context.finishPhase(now);
+            context.currentPhase = name;
+            context.phaseStartedAt = now;
+        }
+    }
+
+    /**
+     * Tells the plugin that the page for this capture was already loaded in the current tab.
+     */
+    public static void setPreloaded(String url) {
+        CaptureContext context = CURRENT.get();
+        if (context != null) {
+            context.preloadedUrl = url;
+        }
+    }
+
+    /**
+     * @return whether the url was already loaded in the current tab, in which case the plugin skips navigating to it
+     */
+    public static boolean isPreloaded(String url) {
+        CaptureContext context = CURRENT.get();
+        return context != null && url != null && url.equals(context.preloadedUrl);
+    }
+
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Records a WebDriver command sent by the current capture, if any.
+     */
+    public static void recordCommand(String type, long millis) {
+        CaptureContext context = CURRENT.get();
+        if (context != null) {
+            context.commandLatency.computeIfAbsent(type, name -> new LatencyHistogram()).record(millis);
+            long[] countAndMillis = context.commands.computeIfAbsent(type, name -> new long[2]);
+            countAndMillis[0]++;
+            countAndMillis[1] += millis;
+        }
+    }
+
+    /**
+     * @return the WebDriver commands of the current capture so far, e.g. "get 2x 1450 ms, findElement 3x 20 ms"
+     */
+    public static String commandSummary() {
+        CaptureContext context = CURRENT.get();
+        if (context == null) {
+            return "";
+        }
+        return context.commands.entrySet().stream()
+                .map(entry -> entry.getKey() + " " + entry.getValue()[0] + "x " + entry.getValue()[1] + " ms")
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Registers image work of the current capture that runs on another thread.
+     */
+    public static void addImageWork(CompletableFuture<Void> work) {
+        CaptureContext context = CURRENT.get();
+        if (context != null) {
+            context.imageWork.add(work);
+        }
+    }
+
+    /**
+     * @return completes when all image work of the current capture is done, exceptionally if any of it failed
+     */
+    public static CompletableFuture<Void> pendingImageWork() {
+        CaptureContext context = CURRENT.get();
+        if (context == null || context.imageWork.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(context.imageWork.toArray(new CompletableFuture[context.imageWork.size()]));
+    }
+
+    /**
+     * @return the timeout for a phase of the current capture, at most maxSeconds
+     */
+    public static long timeoutSeconds(String phase, long maxSeconds) {
+        CaptureContext context = CURRENT.get();
+        if (context == null) {
+            return maxSeconds;
+        }
+        long timeoutMillis = derivedTimeoutMillis(context.phaseLatency.get(phase), context.timeoutFactor,
+                context.minTimeoutMillis, maxSeconds * 1000);
+        return Math.max(1, (long) Math.ceil(Math.min(timeoutMillis, context.remainingMillis()) / 1000.0));
+    }
+
+    /**
+     * @return seconds left until the deadline of the current capture, at most maxSeconds
+     */
+    public static long remainingSeconds(long maxSeconds) {
+        CaptureContext context = CURRENT.get();
+        if (context == null) {
+            return maxSeconds;
+        }
+        return Math.max(1, Math.min(maxSeconds, (long) Math.ceil(context.remainingMillis() / 1000.0)));
+    }
+
+    /**
+     * p99 of the history times factor, clamped to [minMillis, maxMillis]; maxMillis while there is too little history.
+     */
+    public static long derivedTimeoutMillis(LatencyHistogram history, int factor, long minMillis, long maxMillis) {
+        if (history == null || history.getCount() < MIN_SAMPLES) {
+            return maxMillis;
+        }
+        return Math.max(minMillis, Math.min(maxMillis, history.getPercentile(99) * factor));
+    }
+
+    public static boolean isCancelled() {
+        CaptureContext context = CURRENT.get();
+        return context != null && (context.cancelled.getAsBoolean() || context.remainingMillis() <= 0);
+    }
+
+    public static void checkCancelled() {
+        CaptureContext context = CURRENT.get();
+        if (context == null) {
+            return;
+        }
+        if (context.cancelled.getAsBoolean()) {
+            throw new CaptureCancelledException();
+        }
+        if (context.remainingMillis() <= 0) {
+            throw new DeadlineExceededException(context.currentPhase);
+        }
+    }
+
+    private long remainingMillis() {
+        return deadline - System.currentTimeMillis();
+    }
+
+    private void finishPhase(long now) {
+        if (currentPhase != null) {
+            phaseMillis.merge(currentPhase, now - phaseStartedAt, Long::sum);
+        }
+    }
+
+    public static class CaptureCancelledException extends RuntimeException {
+
+        CaptureCancelledException() {
+            super("Capture cancelled.");
+        }
+
+    }
+
+    public static class DeadlineExceededException extends RuntimeException {
+
+        DeadlineExceededException(String phase) {
+            super("Capture exceeded its deadline" + (phase == null ? "." : " in phase '" + phase + "'."));
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+package nl.revolution.watchboard.utils;
+
+import com.google.common.collect.ImmutableMap;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.service.DriverCommandExecutor;
+import org.openqa.selenium.remote.service.DriverService;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless Chromium through chromedriver. Unlike PhantomJS it renders current CSS and JavaScript as is, and it takes
+ * screenshots of just the element to capture (see {@link TakesClipScreenshot}), so no full page screenshot has to be
+ * decoded and cropped.
+ *
+ * Cookies and clipped screenshots use the DevTools protocol, through chromedriver's endpoint for DevTools commands.
+ * Selenium 2 speaks the old JSON wire protocol, so chromedriver is asked to do the same.
+ */
+public class ChromeBackend implements DriverBackend {
+
+    static final String DEVTOOLS_COMMAND = "executeDevToolsCommand";
+    private static final List<String> COOKIE_FIELDS = Arrays.asList("name", "value", "domain", "path", "expires",
+            "httpOnly", "secure", "sameSite");
+
+    private final String driverPath;
+    private final String binary;
+
+    /**
+     * @param driverPath chromedriver executable, or null to use the 'webdriver.chrome.driver' system property or PATH
+     * @param binary Chrome or Chromium executable, or null to let chromedriver find it
+     */
+    public ChromeBackend(String driverPath, String binary) {
+        this.driverPath = driverPath;
+        this.binary = binary;
+    }
+
+    @Override
+    public String getName() {
+        return CHROME;
+    }
+
+    @Override
+    public WebDriver createDriver(String metricSuffix, String proxy) {
+        ChromeOptions options = new ChromeOptions();
+        if (binary != null) {
+            options.setBinary(binary);
+        }
+        options.addArguments("--headless", "--disable-gpu", "--no-sandbox", "--disable-dev-shm-usage",
+                "--hide-scrollbars", "--disable-web-security", "--blink-settings=imagesEnabled=false");
+        if (proxy != null) {
+            options.addArguments("--proxy-server=http://" + proxy);
+        }
+        options.setExperimentalOption("w3c", false);
+        DesiredCapabilities capabilities = DesiredCapabilities.chrome();
+        capabilities.setCapability(ChromeOptions.CAPABILITY, options);
+
+        ChromeDriverService.Builder service = new ChromeDriverService.Builder().usingAnyFreePort();
+        if (driverPath != null) {
+            service.usingDriverExecutable(new File(driverPath));
+        }
+        return new HeadlessChrome(new TimedCommandExecutor(new ChromeCommandExecutor(service.build()), metricSuffix), capabilities);
+    }
+
+    @Override
+    public int findProcessId(int driverPort) {
+        // The browser is started by chromedriver; renderer processes are not included.
+        return ProcessStats.findChildPid(ProcessStats.findPid("--port=" + driverPort), "chrom");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> exportCookies(WebDriver driver) {
+        Object cookies = ((HeadlessChrome) driver).devTools("Network.getAllCookies", Collections.emptyMap()).get("cookies");
+        return cookies instanceof List ? (List<Map<String, Object>>) cookies : Collections.emptyList();
+    }
+
+    @Override
+    public void importCookies(WebDriver driver, List<Map<String, Object>> cookies) {
+        List<Map<String, Object>> params = new ArrayList<>();
+        for (Map<String, Object> cookie : cookies) {
+            Map<String, Object> param = new HashMap<>(cookie);
+            param.keySet().retainAll(COOKIE_FIELDS);
+            params.add(param);
+        }
+        ((HeadlessChrome) driver).devTools("Network.setCookies", ImmutableMap.of("cookies", params));
+    }
+
+    @Override
+    public void clearCookies(WebDriver driver) {
+        ((HeadlessChrome) driver).devTools("Network.clearBrowserCookies", Collections.emptyMap());
+    }
+
+    static class HeadlessChrome extends RemoteWebDriver implements TakesClipScreenshot {
+
+        HeadlessChrome(TimedCommandExecutor executor, DesiredCapabilities capabilities) {
+            super(executor, capabilities);
+        }
+
+        @Override
+        public byte[] getScreenshotOf(Point location, Dimension size) {
+            Map<String, Object> clip = new HashMap<>();
+            clip.put("x", location.getX());
+            clip.put("y", location.getY());
+            clip.put("width", size.getWidth());
+            clip.put("height", size.getHeight());
+            clip.put("scale", 1);
+            Object data = devTools("Page.captureScreenshot",
+                    ImmutableMap.of("format", "png", "clip", clip, "captureBeyondViewport", true)).get("data");
+            if (!(data instanceof String)) {
+                throw new IllegalStateException("No screenshot data returned by the browser.");
+            }
+            return Base64.getDecoder().decode((String) data);
+        }
+
+        Map<?, ?> devTools(String command, Map<String, ?> params) {
+            Object result = execute(DEVTOOLS_COMMAND, ImmutableMap.of("cmd", command, "params", params)).getValue();
+            return result instanceof Map ? (Map<?, ?>) result : Collections.emptyMap();
+        }
+
+    }
+
+    /**
+     * Starts and stops chromedriver with the session, like ChromeDriver's own executor, and knows its endpoint for
+     * DevTools commands.
+     */
+    private static class ChromeCommandExecutor extends DriverCommandExecutor {
+
+        ChromeCommandExecutor(DriverService service) {
+            super(service, ImmutableMap.of(DEVTOOLS_COMMAND,
+                    new CommandInfo("/session/:sessionId/chromium/send_command_and_get_result", HttpMethod.POST)));
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import org.openqa.selenium.WebDriver;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The browser behind a {@link WebDriverWrapper}, together with what WebDriver itself can't do for it. Selected per
+ * plugin with 'driver.backend' ("phantomjs" or "chrome"), falling back to the global 'driver.backend' setting.
+ */
+public interface DriverBackend {
+
+    String PHANTOMJS = "phantomjs";
+    String CHROME = "chrome";
+
+    String getName();
+
+    /**
+     * Starts a browser.
+     *
+     * @param metricSuffix names the command timing metrics of the browser
+     * @param proxy host:port of the HTTP proxy to use, or null to connect directly
+     */
+    WebDriver createDriver(String metricSuffix, String proxy);
+
+    /**
+     * @return pid of the browser process behind the driver listening on the given port, or -1 if unknown
+     */
+    int findProcessId(int driverPort);
+
+    /**
+     * @return the cookies of all domains the browser has visited, in a format only this backend understands
+     */
+    List<Map<String, Object>> exportCookies(WebDriver driver);
+
+    /**
+     * Adds cookies exported by {@link #exportCookies(WebDriver)}, for any domain, without loading a page first.
+     */
+    void importCookies(WebDriver driver, List<Map<String, Object>> cookies);
+
+    void clearCookies(WebDriver driver);
+
+    static DriverBackend forPlugin(Graph.Type type) {
+        Plugin plugin = Config.getInstance().getPlugin(type);
+        String name = plugin == null ? null : plugin.getDriverBackend();
+        if (name == null) {
+            name = Config.getInstance().getString(Config.DRIVER_BACKEND);
+        }
+        return byName(name == null ? PHANTOMJS : name);
+    }
+
+    static DriverBackend byName(String name) {
+        switch (name.toLowerCase()) {
+            case PHANTOMJS:
+                return new PhantomJsBackend();
+            case CHROME:
+                return new ChromeBackend(Config.getInstance().getString(Config.DRIVER_CHROME_DRIVER_PATH),
+                        Config.getInstance().getString(Config.DRIVER_CHROME_BINARY));
+            default:
+                throw new IllegalArgumentException("Unknown driver backend '" + name + "'.");
+        }
+    }
+
+}
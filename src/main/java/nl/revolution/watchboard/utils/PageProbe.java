@@ -0,0 +1,147 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Several queries on the current page, answered by a single executeScript call. Every WebDriver command is an HTTP
+ * round trip to the browser; checking the visibility or opacity of N elements the WebDriver way takes N + 1 of them,
+ * a probe takes one, however many queries it bundles.
+ *
+ * Each query has a name under which its answer is read from the {@link Result}.
+ */
+public class PageProbe {
+
+    private static final String SCRIPT =
+            "var queries = arguments[0], result = {};" +
+            "for (var i = 0; i < queries.length; i++) {" +
+            "  var kind = queries[i][0], name = queries[i][1], target = queries[i][2];" +
+            "  var elements = typeof target === 'string' ? document.querySelectorAll(target) : [target];" +
+            "  if (kind === 'bounds') {" +
+            "    var rect = elements.length ? elements[0].getBoundingClientRect() : null;" +
+            "    result[name] = rect && [rect.left + window.pageXOffset, rect.top + window.pageYOffset, rect.width, rect.height];" +
+            "    continue;" +
+            "  }" +
+            "  var matching = 0;" +
+            "  for (var j = 0; j < elements.length; j++) {" +
+            "    var element = elements[j], style = window.getComputedStyle(element);" +
+            "    if (kind === 'count'" +
+            "        || (kind === 'visible' && style.visibility !== 'hidden' && style.display !== 'none'" +
+            "            && (element.offsetWidth > 0 || element.offsetHeight > 0 || element.getClientRects().length > 0))" +
+            "        || (kind === 'opaque' && style.opacity === '1')) {" +
+            "      matching++;" +
+            "    }" +
+            "  }" +
+            "  result[name] = matching;" +
+            "}" +
+            "return result;";
+
+    private final WebDriver driver;
+    private final List<List<Object>> queries = new ArrayList<>();
+
+    private PageProbe(WebDriver driver) {
+        this.driver = driver;
+    }
+
+    public static PageProbe on(WebDriver driver) {
+        return new PageProbe(driver);
+    }
+
+    /**
+     * Number of elements matching the CSS selector.
+     */
+    public PageProbe count(String name, String cssSelector) {
+        return add("count", name, cssSelector);
+    }
+
+    /**
+     * Number of elements matching the CSS selector that are displayed.
+     */
+    public PageProbe visible(String name, String cssSelector) {
+        return add("visible", name, cssSelector);
+    }
+
+    /**
+     * Number of elements matching the CSS selector that are fully opaque.
+     */
+    public PageProbe opaque(String name, String cssSelector) {
+        return add("opaque", name, cssSelector);
+    }
+
+    /**
+     * Location (relative to the page) and size of the element.
+     */
+    public PageProbe bounds(String name, WebElement element) {
+        return add("bounds", name, element);
+    }
+
+    /**
+     * Location (relative to the page) and size of the first element matching the CSS selector.
+     */
+    public PageProbe bounds(String name, String cssSelector) {
+        return add("bounds", name, cssSelector);
+    }
+
+    public Result run() {
+        Object result = ((JavascriptExecutor) driver).executeScript(SCRIPT, queries);
+        return new Result(result instanceof Map ? (Map<?, ?>) result : Collections.emptyMap());
+    }
+
+    private PageProbe add(String kind, String name, Object target) {
+        queries.add(Arrays.asList(kind, name, target));
+        return this;
+    }
+
+    public static class Result {
+
+        private final Map<?, ?> answers;
+
+        Result(Map<?, ?> answers) {
+            this.answers = answers;
+        }
+
+        public long count(String name) {
+            Object answer = answers.get(name);
+            return answer instanceof Number ? ((Number) answer).longValue() : 0;
+        }
+
+        /**
+         * @return whether the element was found
+         */
+        public boolean exists(String name) {
+            return answers.get(name) instanceof List;
+        }
+
+        public Point location(String name) {
+            List<?> bounds = bounds(name);
+            return new Point(round(bounds.get(0)), round(bounds.get(1)));
+        }
+
+        public Dimension size(String name) {
+            List<?> bounds = bounds(name);
+            return new Dimension(round(bounds.get(2)), round(bounds.get(3)));
+        }
+
+        private List<?> bounds(String name) {
+            if (!exists(name)) {
+                throw new IllegalStateException("No element found for probe '" + name + "'.");
+            }
+            return (List<?>) answers.get(name);
+        }
+
+        private static int round(Object value) {
+            return (int) Math.round(((Number) value).doubleValue());
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
+
+/**
+ * Waits until a page is ready to be captured, instead of sleeping for a fixed time.
+ *
+ * A script injected in the page tracks DOM mutations and pending XHR/fetch requests. A single asynchronous script
+ * call then returns as soon as the page is loaded, the network is idle, the DOM has been quiet for a short while and
+ * a plugin-specific JavaScript condition holds, so every capture waits exactly as long as its page needs. Requests
+ * started before the script was injected are not tracked; plugins that trigger requests themselves (e.g. by picking
+ * a time range) call {@link #install(WebDriver)} first.
+ *
+ * With 'capture.readiness.enabled' set to false, the condition is polled over WebDriver instead, followed by the
+ * quiet period, which is close to the old sleep loops. Comparing the per-graph phase latencies (scheduler status)
+ * with both settings shows the savings; the time spent waiting is counted in 'capture.readiness.waitMillis'.
+ */
+public class PageReadiness {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageReadiness.class);
+    private static final String SCRIPT = readScript();
+    private static final String AWAIT_SCRIPT = SCRIPT
+            + "window.__watchboardReadiness.await(arguments[0], arguments[1], arguments[2], arguments[arguments.length - 1]);";
+    private static final int DEFAULT_QUIET_MILLIS = 200;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long SCRIPT_TIMEOUT_MARGIN_MILLIS = 1000;
+
+    public static final String ANY = "true";
+
+    /**
+     * Starts tracking DOM mutations and requests of the current page.
+     */
+    public static void install(WebDriver driver) {
+        if (isEnabled()) {
+            ((JavascriptExecutor) driver).executeScript(SCRIPT);
+        }
+    }
+
+    /**
+     * Starts a new phase of the capture and waits until the page is ready, within the (derived) timeout of the phase.
+     *
+     * @param readyWhen JavaScript expression that holds once the plugin's content is rendered, or {@link #ANY}
+     * @return whether the page became ready in time
+     */
+    public static boolean awaitPhase(WebDriver driver, Graph.Type type, String phase, long maxSeconds, String readyWhen) {
+        CaptureContext.phase(phase);
+        return await(driver, type, CaptureContext.timeoutSeconds(phase, maxSeconds), readyWhen);
+    }
+
+    /**
+     * Waits until the page is ready, at most timeoutSeconds (and never beyond the deadline of the capture).
+     *
+     * @param readyWhen JavaScript expression that holds once the plugin's content is rendered, or {@link #ANY}
+     * @return whether the page became ready in time
+     */
+    public static boolean await(WebDriver driver, Graph.Type type, long timeoutSeconds, String readyWhen) {
+        CaptureContext.checkCancelled();
+        long timeoutMillis = CaptureContext.remainingSeconds(timeoutSeconds) * 1000;
+        int quietMillis = Config.getInstance().getInt(Config.CAPTURE_READINESS_QUIET_MILLIS, DEFAULT_QUIET_MILLIS);
+        long start = System.currentTimeMillis();
+        boolean ready;
+        if (isEnabled()) {
+            ready = awaitInPage(driver, readyWhen, quietMillis, timeoutMillis);
+        } else {
+            ready = poll(driver, readyWhen, quietMillis, timeoutMillis);
+        }
+
+        long waitedMillis = System.currentTimeMillis() - start;
+        Metrics metrics = Metrics.getInstance();
+        metrics.increment("capture.readiness.waits." + type);
+        metrics.add("capture.readiness.waitMillis." + type, waitedMillis);
+        if (!ready) {
+            metrics.increment("capture.readiness.timeouts." + type);
+            LOG.warn("Page not ready after {} ms, waiting for: {}", waitedMillis, readyWhen);
+        } else {
+            LOG.debug("Page ready after {} ms.", waitedMillis);
+        }
+        CaptureContext.checkCancelled();
+        return ready;
+    }
+
+    private static boolean awaitInPage(WebDriver driver, String readyWhen, int quietMillis, long timeoutMillis) {
+        long start = System.currentTimeMillis();
+        WebDriverUtils.setScriptTimeout(driver, timeoutMillis + SCRIPT_TIMEOUT_MARGIN_MILLIS);
+        try {
+            return Boolean.TRUE.equals(((JavascriptExecutor) driver).executeAsyncScript(AWAIT_SCRIPT, readyWhen, quietMillis, timeoutMillis));
+        } catch (TimeoutException e) {
+            return false;
+        } catch (WebDriverException e) {
+            // E.g. the page navigated away while waiting; fall back to polling for the remaining time.
+            LOG.warn("Waiting in page failed, polling instead: {}", e.getMessage());
+            return poll(driver, readyWhen, quietMillis, Math.max(0, timeoutMillis - (System.currentTimeMillis() - start)));
+        } finally {
+            WebDriverUtils.enableTimeouts(driver);
+        }
+    }
+
+    private static boolean poll(WebDriver driver, String readyWhen, int quietMillis, long timeoutMillis) {
+        String script = "try { return document.readyState === 'complete' && !!(" + readyWhen + "); } catch (e) { return false; }";
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!Boolean.TRUE.equals(((JavascriptExecutor) driver).executeScript(script))) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            doSleep(POLL_INTERVAL_MILLIS);
+        }
+        doSleep(quietMillis);
+        return true;
+    }
+
+    private static boolean isEnabled() {
+        return Config.getInstance().getBoolean(Config.CAPTURE_READINESS_ENABLED, true);
+    }
+
+    private static String readScript() {
+        try (InputStream script = PageReadiness.class.getClassLoader().getResourceAsStream("readiness.js")) {
+            return IOUtils.toString(script, "UTF-8");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PhantomJS through GhostDriver. Screenshots always cover the entire page; {@link WebDriverUtils#takeScreenShot}
+ * crops them to the element.
+ */
+public class PhantomJsBackend implements DriverBackend {
+
+    @Override
+    public String getName() {
+        return PHANTOMJS;
+    }
+
+    @Override
+    public WebDriver createDriver(String metricSuffix, String proxy) {
+        DesiredCapabilities desiredCapabilities = DesiredCapabilities.phantomjs();
+        String[] args = new String[]{"--proxy-type=none", "--web-security=false"};
+        String[] browserArgs = proxy == null ? args
+                : new String[]{"--proxy=" + proxy, "--proxy-type=http", "--web-security=false"};
+        desiredCapabilities.setCapability("phantomjs.cli.args", browserArgs);
+        desiredCapabilities.setCapability("phantomjs.ghostdriver.cli.args", args);
+        desiredCapabilities.setCapability("phantomjs.page.settings.loadImages", false);
+        return new PhantomJSDriver(desiredCapabilities) {
+            {
+                // Time every command sent after the session has started.
+                setCommandExecutor(new TimedCommandExecutor(getCommandExecutor(), metricSuffix));
+            }
+        };
+    }
+
+    @Override
+    public int findProcessId(int driverPort) {
+        return ProcessStats.findPid("--webdriver=" + driverPort);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> exportCookies(WebDriver driver) {
+        // WebDriver only exposes the cookies of the current page.
+        Object cookies = ((PhantomJSDriver) driver).executePhantomJS("return phantom.cookies;");
+        return cookies instanceof List ? (List<Map<String, Object>>) cookies : Collections.emptyList();
+    }
+
+    @Override
+    public void importCookies(WebDriver driver, List<Map<String, Object>> cookies) {
+        ((PhantomJSDriver) driver).executePhantomJS("arguments[0].forEach(function (cookie) { phantom.addCookie(cookie); });", cookies);
+    }
+
+    @Override
+    public void clearCookies(WebDriver driver) {
+        ((PhantomJSDriver) driver).executePhantomJS("phantom.clearCookies();");
+    }
+
+}
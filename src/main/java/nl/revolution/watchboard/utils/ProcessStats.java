@@ -0,0 +1,135 @@
+package nl.revolution.watchboard.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reads memory and CPU usage of a process from /proc. Only works on Linux; elsewhere every lookup returns -1.
+ */
+public class ProcessStats {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessStats.class);
+    private static final Path PROC = Paths.get("/proc");
+
+    // USER_HZ; 100 on every Linux platform we run on.
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    /**
+     * @return pid of the process started with the given command line argument (e.g. its webdriver port), or -1 if
+     * not found
+     */
+    public static int findPid(String argument) {
+        File[] processes = PROC.toFile().listFiles((dir, name) -> name.matches("\\d+"));
+        if (processes == null) {
+            return -1;
+        }
+        for (File process : processes) {
+            try {
+                byte[] cmdline = Files.readAllBytes(process.toPath().resolve("cmdline"));
+                for (String processArgument : new String(cmdline, StandardCharsets.UTF_8).split("\0")) {
+                    if (processArgument.equals(argument)) {
+                        return Integer.parseInt(process.getName());
+                    }
+                }
+            } catch (IOException e) {
+                // Process exited or is not ours to read.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return pid of the first child process of the parent whose command contains the given name, or -1 if not found
+     */
+    public static int findChildPid(int parentPid, String commandName) {
+        File[] processes = PROC.toFile().listFiles((dir, name) -> name.matches("\\d+"));
+        if (processes == null || parentPid < 0) {
+            return -1;
+        }
+        for (File process : processes) {
+            try {
+                String stat = new String(Files.readAllBytes(process.toPath().resolve("stat")), StandardCharsets.UTF_8);
+                if (parseParentPid(stat) == parentPid && stat.substring(stat.indexOf('(') + 1, stat.lastIndexOf(')')).contains(commandName)) {
+                    return Integer.parseInt(process.getName());
+                }
+            } catch (IOException e) {
+                // Process exited or is not ours to read.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return resident set size in kB, or -1 if the process does not exist
+     */
+    public static long readRssKb(int pid) {
+        try {
+            return parseRssKb(new String(Files.readAllBytes(PROC.resolve(pid + "/status")), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.debug("Unable to read status of process {}: {}", pid, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return user plus system CPU time in milliseconds, or -1 if the process does not exist
+     */
+    public static long readCpuMillis(int pid) {
+        try {
+            long ticks = parseCpuTicks(new String(Files.readAllBytes(PROC.resolve(pid + "/stat")), StandardCharsets.UTF_8));
+            return ticks < 0 ? -1 : ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (IOException e) {
+            LOG.debug("Unable to read stat of process {}: {}", pid, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return memory available for new processes in kB, or -1 if unknown
+     */
+    public static long readMemAvailableKb() {
+        try {
+            return parseKbField(new String(Files.readAllBytes(PROC.resolve("meminfo")), StandardCharsets.UTF_8), "MemAvailable:");
+        } catch (IOException e) {
+            LOG.debug("Unable to read meminfo: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    static long parseRssKb(String status) {
+        return parseKbField(status, "VmRSS:");
+    }
+
+    private static long parseKbField(String content, String field) {
+        for (String line : content.split("\n")) {
+            if (line.startsWith(field)) {
+                return Long.parseLong(line.substring(field.length()).replace("kB", "").trim());
+            }
+        }
+        return -1;
+    }
+
+    static int parseParentPid(String stat) {
+        // ppid is field 4 of the full line, the second one after the command name.
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+        return fields.length < 2 ? -1 : Integer.parseInt(fields[1]);
+    }
+
+    static long parseCpuTicks(String stat) {
+        // The command name (field 2) is in parentheses and may contain spaces, so count fields from the last ')'.
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+        if (fields.length < 13) {
+            return -1;
+        }
+        // utime and stime are fields 14 and 15 of the full line.
+        return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+    }
+
+}
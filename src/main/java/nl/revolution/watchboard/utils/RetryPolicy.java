@@ -0,0 +1,133 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
+
+/**
+ * Retries an action with exponential backoff and jitter, up to a maximum number of attempts.
+ *
+ * A policy is shared by everyone performing the same kind of action (logins, driver starts), and so is its retry
+ * budget: at most a configured number of retries per minute, over all browsers together. When an upstream console is
+ * down, every session fails at once; the budget turns what would be a retry storm into a few probes, and the jitter
+ * keeps those from hitting the console at the same moment.
+ *
+ * Settings are read from the config under the policy's prefix (e.g. "retry.login.maxAttempts") on every call, so
+ * they can be changed at runtime. Attempts, backoff time and given-up retries are counted per key, usually the
+ * plugin type.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+    private static final long BUDGET_WINDOW_MILLIS = 60 * 1000;
+    private static final double JITTER = 0.2;
+
+    public interface Action {
+        void run(int attempt) throws Exception;
+    }
+
+    private final String name;
+    private final String configPrefix;
+    private final Clock clock;
+    private final Deque<Long> recentRetries = new ArrayDeque<>();
+
+    private int maxAttempts;
+    private long baseDelayMillis;
+    private long maxDelayMillis;
+    private int retriesPerMinute;
+
+    /**
+     * @param configPrefix prefix of the config keys to read the settings from, or null to always use the defaults
+     */
+    public RetryPolicy(String name, String configPrefix, int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+                       int retriesPerMinute, Clock clock) {
+        this.name = name;
+        this.configPrefix = configPrefix;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retriesPerMinute = retriesPerMinute;
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the action until it succeeds, the maximum number of attempts is reached or the retry budget is used up.
+     * The attempt number (starting at 1) is passed in, so an action can clean up after an earlier failed attempt.
+     *
+     * @throws RuntimeException the failure of the last attempt
+     */
+    public void run(String key, Action action) {
+        readSettings();
+        for (int attempt = 1; ; attempt++) {
+            Metrics.getInstance().increment("retry." + name + ".attempts." + key);
+            try {
+                action.run(attempt);
+                return;
+            } catch (CaptureContext.CaptureCancelledException | CaptureContext.DeadlineExceededException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    Metrics.getInstance().increment("retry." + name + ".exhausted." + key);
+                    LOG.error("{} for {} failed, giving up after {} attempts.", name, key, attempt);
+                    throw asRuntimeException(e);
+                }
+                if (!acquireRetry()) {
+                    Metrics.getInstance().increment("retry." + name + ".overBudget." + key);
+                    LOG.error("{} for {} failed, not retrying: retry budget of {} per minute used up.", name, key, retriesPerMinute);
+                    throw asRuntimeException(e);
+                }
+
+                long delayMillis = backoffMillis(attempt, baseDelayMillis, maxDelayMillis);
+                Metrics.getInstance().add("retry." + name + ".backoffMillis." + key, delayMillis);
+                LOG.warn("{} for {} failed (attempt {} of {}), retrying in {} ms: {}",
+                        name, key, attempt, maxAttempts, delayMillis, e.toString());
+                doSleep(delayMillis);
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: baseDelay * 2^(attempt - 1), capped at maxDelay, then spread by +/- 20%.
+     */
+    public static long backoffMillis(int attempt, long baseDelayMillis, long maxDelayMillis) {
+        long delayMillis = Math.min(baseDelayMillis << Math.min(Math.max(attempt - 1, 0), 20), maxDelayMillis);
+        double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) (delayMillis * jitter);
+    }
+
+    private synchronized boolean acquireRetry() {
+        long now = clock.millis();
+        while (!recentRetries.isEmpty() && recentRetries.peekFirst() <= now - BUDGET_WINDOW_MILLIS) {
+            recentRetries.pollFirst();
+        }
+        if (recentRetries.size() >= retriesPerMinute) {
+            return false;
+        }
+        recentRetries.addLast(now);
+        return true;
+    }
+
+    private synchronized void readSettings() {
+        if (configPrefix == null) {
+            return;
+        }
+        Config config = Config.getInstance();
+        maxAttempts = config.getInt(configPrefix + ".maxAttempts", maxAttempts);
+        baseDelayMillis = config.getInt(configPrefix + ".baseDelaySeconds", (int) (baseDelayMillis / 1000)) * 1000L;
+        maxDelayMillis = config.getInt(configPrefix + ".maxDelaySeconds", (int) (maxDelayMillis / 1000)) * 1000L;
+        retriesPerMinute = config.getInt(configPrefix + ".retriesPerMinute", retriesPerMinute);
+    }
+
+    private static RuntimeException asRuntimeException(Exception e) {
+        return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+    }
+
+}
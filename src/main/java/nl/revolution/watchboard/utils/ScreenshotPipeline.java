@@ -0,0 +1,83 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes, crops, encodes and publishes screenshots on a small pool of image threads, so the browser that took a
+ * screenshot can start navigating to its next graph right away.
+ *
+ * The queue in front of the pool is bounded. When it is full, the browser thread that submits the screenshot does
+ * the image work itself; that slows the browsers down to the rate at which images can be processed, instead of
+ * piling up raw screenshots in memory.
+ */
+public class ScreenshotPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScreenshotPipeline.class);
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_SIZE = 4;
+
+    private static ScreenshotPipeline instance;
+
+    public interface ImageTask {
+        void run() throws IOException;
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private ScreenshotPipeline(int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "screenshot-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    Metrics.getInstance().increment("capture.pipeline.callerRuns");
+                    runnable.run();
+                });
+        Metrics.getInstance().gauge("capture.pipeline.queued", () -> executor.getQueue().size());
+        Metrics.getInstance().gauge("capture.pipeline.active", executor::getActiveCount);
+        LOG.info("Processing screenshots on {} threads, queueing at most {}.", threads, queueSize);
+    }
+
+    public static synchronized ScreenshotPipeline getInstance() {
+        if (instance == null) {
+            Config config = Config.getInstance();
+            instance = new ScreenshotPipeline(Math.max(1, config.getInt(Config.CAPTURE_PIPELINE_THREADS, DEFAULT_THREADS)),
+                    Math.max(1, config.getInt(Config.CAPTURE_PIPELINE_QUEUE_SIZE, DEFAULT_QUEUE_SIZE)));
+        }
+        return instance;
+    }
+
+    public static boolean isEnabled() {
+        return Config.getInstance().getBoolean(Config.CAPTURE_PIPELINE_ENABLED, true);
+    }
+
+    /**
+     * @return completes when the task has run, exceptionally if it failed
+     */
+    public CompletableFuture<Void> submit(ImageTask task) {
+        long submittedAt = System.currentTimeMillis();
+        return CompletableFuture.runAsync(() -> {
+            Metrics.getInstance().add("capture.pipeline.waitMillis", System.currentTimeMillis() - submittedAt);
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+}
@@ -0,0 +1,17 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.Point;
+
+/**
+ * A driver that can take a screenshot of part of the page, instead of the entire page.
+ */
+public interface TakesClipScreenshot {
+
+    /**
+     * @param location top left corner of the area, relative to the page
+     * @return PNG image of just the given area of the page
+     */
+    byte[] getScreenshotOf(Point location, Dimension size);
+
+}
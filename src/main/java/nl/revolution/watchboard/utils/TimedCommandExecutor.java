@@ -0,0 +1,81 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.metrics.Metrics;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+
+import java.io.IOException;
+
+/**
+ * Counts and times every command a driver sends to its browser, by type of command. Each command is an HTTP round
+ * trip, so this shows where the time of a capture goes and which plugin steps are worth optimizing.
+ *
+ * Latencies are recorded per plugin in the 'webdriver.command.&lt;type&gt;.&lt;plugin&gt;' histograms, and per graph
+ * and per capture through the {@link CaptureContext} of the thread sending the command.
+ */
+public class TimedCommandExecutor implements CommandExecutor {
+
+    private final CommandExecutor delegate;
+    private final String metricSuffix;
+
+    public TimedCommandExecutor(CommandExecutor delegate, String metricSuffix) {
+        this.delegate = delegate;
+        this.metricSuffix = metricSuffix;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.execute(command);
+        } finally {
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            String type = commandType(command.getName());
+            Metrics.getInstance().record("webdriver.command." + type + "." + metricSuffix, millis);
+            CaptureContext.recordCommand(type, millis);
+        }
+    }
+
+    public CommandExecutor getDelegate() {
+        return delegate;
+    }
+
+    static String commandType(String commandName) {
+        switch (commandName) {
+            case DriverCommand.GET:
+                return "get";
+            case DriverCommand.FIND_ELEMENT:
+            case DriverCommand.FIND_ELEMENTS:
+            case DriverCommand.FIND_CHILD_ELEMENT:
+            case DriverCommand.FIND_CHILD_ELEMENTS:
+                return "findElement";
+            case DriverCommand.EXECUTE_SCRIPT:
+            case DriverCommand.EXECUTE_ASYNC_SCRIPT:
+                return "executeScript";
+            case DriverCommand.SCREENSHOT:
+                return "screenshot";
+            case DriverCommand.SET_WINDOW_SIZE:
+            case DriverCommand.GET_WINDOW_SIZE:
+            case DriverCommand.SET_WINDOW_POSITION:
+            case DriverCommand.GET_WINDOW_POSITION:
+            case DriverCommand.MAXIMIZE_WINDOW:
+                return "window";
+            case DriverCommand.SWITCH_TO_WINDOW:
+            case DriverCommand.GET_CURRENT_WINDOW_HANDLE:
+            case DriverCommand.GET_WINDOW_HANDLES:
+            case DriverCommand.CLOSE:
+                return "tab";
+            case ChromeBackend.DEVTOOLS_COMMAND:
+                return "devTools";
+            case DriverCommand.SET_TIMEOUT:
+            case DriverCommand.SET_SCRIPT_TIMEOUT:
+            case DriverCommand.IMPLICITLY_WAIT:
+                return "timeouts";
+            default:
+                return commandName.contains("Element") ? "element" : "other";
+        }
+    }
+
+}
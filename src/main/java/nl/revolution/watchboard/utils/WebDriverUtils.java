@@ -2,7 +2,6 @@ package nl.revolution.watchboard.utils;
 
 import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
-import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.slf4j.Logger;
@@ -10,8 +9,16 @@ import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static java.time.temporal.ChronoUnit.SECONDS;
@@ -22,16 +29,49 @@ public class WebDriverUtils {
     private static final Logger LOG = LoggerFactory.getLogger(WebDriverUtils.class);
     public static final int WEBDRIVER_TIMEOUT_SECONDS = 60;
 
+    private static final int PAGE_LOAD_TIMEOUT = 0;
+    private static final int SCRIPT_TIMEOUT = 1;
+    private static final int IMPLICIT_WAIT = 2;
+
+    // Timeouts last sent to each driver (in ms), so unchanged timeouts are not sent again.
+    private static final Map<WebDriver, long[]> TIMEOUTS = Collections.synchronizedMap(new WeakHashMap<>());
+
     public static void disableTimeouts(WebDriver driver) {
-        driver.manage().timeouts().pageLoadTimeout(0, TimeUnit.SECONDS);
-        driver.manage().timeouts().setScriptTimeout(0, TimeUnit.SECONDS);
-        driver.manage().timeouts().implicitlyWait(0, TimeUnit.SECONDS);
+        setTimeout(driver, PAGE_LOAD_TIMEOUT, 0);
+        setTimeout(driver, SCRIPT_TIMEOUT, 0);
+        setTimeout(driver, IMPLICIT_WAIT, 0);
     }
 
+    /**
+     * Sets the driver's own timeouts. They are the same for every capture, so they are only sent once per driver; the
+     * deadline of a capture is enforced on our side, by the waits (see {@link CaptureContext#remainingSeconds}) and the
+     * capture watchdog.
+     */
     public static void enableTimeouts(WebDriver driver) {
-        driver.manage().timeouts().pageLoadTimeout(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        driver.manage().timeouts().setScriptTimeout(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        driver.manage().timeouts().implicitlyWait(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long timeoutMillis = WEBDRIVER_TIMEOUT_SECONDS * 1000L;
+        setTimeout(driver, PAGE_LOAD_TIMEOUT, timeoutMillis);
+        setTimeout(driver, SCRIPT_TIMEOUT, timeoutMillis);
+        setTimeout(driver, IMPLICIT_WAIT, timeoutMillis);
+    }
+
+    public static void setScriptTimeout(WebDriver driver, long timeoutMillis) {
+        setTimeout(driver, SCRIPT_TIMEOUT, timeoutMillis);
+    }
+
+    private static void setTimeout(WebDriver driver, int timeout, long timeoutMillis) {
+        long[] current = TIMEOUTS.computeIfAbsent(driver, key -> new long[]{-1, -1, -1});
+        if (current[timeout] == timeoutMillis) {
+            return;
+        }
+        WebDriver.Timeouts timeouts = driver.manage().timeouts();
+        if (timeout == PAGE_LOAD_TIMEOUT) {
+            timeouts.pageLoadTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } else if (timeout == SCRIPT_TIMEOUT) {
+            timeouts.setScriptTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+            timeouts.implicitlyWait(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        current[timeout] = timeoutMillis;
     }
 
     public static void takeDebugScreenshot(WebDriver driver, Graph graph) {
@@ -44,16 +84,40 @@ public class WebDriverUtils {
         }
     }
 
+    /**
+     * Takes a screenshot of the page and publishes the part showing the element. Within a capture, only the raw
+     * screenshot and the position of the element are taken on the browser thread; cropping and publishing happen on
+     * the {@link ScreenshotPipeline}, so the browser can move on to its next graph.
+     *
+     * Browsers that can take a screenshot of just the element ({@link TakesClipScreenshot}) do so; their image is
+     * published as is.
+     */
     public static void takeScreenShot(WebDriver driver, WebElement element, String fileName) throws IOException {
-        File screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
+        PageProbe.Result probe = PageProbe.on(driver).bounds("element", element).run();
+        Point location = probe.location("element");
+        Dimension size = probe.size("element");
+        if (driver instanceof TakesClipScreenshot) {
+            publish(((TakesClipScreenshot) driver).getScreenshotOf(location, size), fileName);
+            return;
+        }
+
+        byte[] screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+        if (CaptureContext.isActive() && ScreenshotPipeline.isEnabled()) {
+            CaptureContext.addImageWork(ScreenshotPipeline.getInstance().submit(() -> cropAndPublish(screenshot, location, size, fileName)));
+        } else {
+            cropAndPublish(screenshot, location, size, fileName);
+        }
+    }
+
+    static void cropAndPublish(byte[] screenshot, Point location, Dimension size, String fileName) throws IOException {
         // Crop the entire page screenshot to get only element screenshot.
         try {
-            BufferedImage image = ImageIO.read(screenshot);
-            int elementWidth = element.getSize().getWidth();
-            int elementHeight = element.getSize().getHeight();
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(screenshot));
+            int elementWidth = size.getWidth();
+            int elementHeight = size.getHeight();
 
-            int subImageWidth = Math.min(elementWidth, image.getWidth() - element.getLocation().getX());
-            int subImageHeight = Math.min(elementHeight, image.getHeight() - element.getLocation().getY());
+            int subImageWidth = Math.min(elementWidth, image.getWidth() - location.getX());
+            int subImageHeight = Math.min(elementHeight, image.getHeight() - location.getY());
 
             if (subImageWidth != elementWidth) {
                 LOG.warn("Image will be cropped horizontally: expected {} px, but will be {} px", elementWidth, subImageWidth);
@@ -63,29 +127,41 @@ public class WebDriverUtils {
                 LOG.warn("Image will be cropped vertically: expected {} px, but will be {} px", elementHeight, subImageHeight);
             }
 
-            BufferedImage eleScreenshot = image.getSubimage(
-                    element.getLocation().getX(), element.getLocation().getY(),
-                    subImageWidth, subImageHeight);
-            ImageIO.write(eleScreenshot, "png", screenshot);
-            FileUtils.copyFile(screenshot, new File(fileName));
-            try {
-                screenshot.delete();
-            } catch (Exception e) {
-                LOG.error("Error while deleting screenshot: ", e);
-            }
-            LOG.info("Updated {}.", fileName);
+            BufferedImage eleScreenshot = image.getSubimage(location.getX(), location.getY(), subImageWidth, subImageHeight);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(eleScreenshot, "png", png);
+            publish(png.toByteArray(), fileName);
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            LOG.error("Error while taking screenshot:", e);
+            throw new IOException("Unable to crop screenshot for " + fileName + ".", e);
         }
     }
 
+    private static void publish(byte[] png, String fileName) throws IOException {
+        // Write next to the target and move it in place, so the image is never served half-written.
+        Path target = Paths.get(fileName);
+        // Every publish gets a temporary file of its own, so concurrent publishes of the same graph never share one.
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, png);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        LOG.info("Updated {}.", fileName);
+    }
+
 
     public static void doSleep(long duration) {
+        CaptureContext.checkCancelled();
         try {
             Thread.sleep(duration);
         } catch (InterruptedException e) {
             LOG.error("Yawn... sleep interrupted: ", e);
         }
+        CaptureContext.checkCancelled();
     }
 
     public static void verifyTitle(WebDriver driver, String expectedTitle, long timeoutInSeconds) {
@@ -96,13 +172,6 @@ public class WebDriverUtils {
         }
     }
 
-    public static int numberOfElements(WebDriver driver, By by) {
-        WebDriverUtils.disableTimeouts(driver);
-        int size = driver.findElements(by).size();
-        WebDriverUtils.enableTimeouts(driver);
-        return size;
-    }
-
     public static void fetchDummyPage(WebDriver driver) {
         driver.get("http://localhost:" + Config.getInstance().getInt(Config.HTTP_PORT) + Config.getInstance().getContextRoot());
     }
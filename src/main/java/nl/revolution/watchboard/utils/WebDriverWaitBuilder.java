@@ -25,7 +25,10 @@ public class WebDriverWaitBuilder {
 
     public <T> T on(ExpectedCondition<T> condition) {
         WebDriverWait loadwait = new WebDriverWait(driver, seconds);
-        return loadwait.until(condition);
+        return loadwait.until((ExpectedCondition<T>) webDriver -> {
+            CaptureContext.checkCancelled();
+            return condition.apply(webDriver);
+        });
     }
 
 }
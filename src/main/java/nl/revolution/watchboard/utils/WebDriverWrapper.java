@@ -1,12 +1,19 @@
 package nl.revolution.watchboard.utils;
 
 import nl.revolution.watchboard.WebDriverHttpParamsSetter;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.proxy.CachingProxy;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.phantomjs.PhantomJSDriver;
-import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Supplier;
 
 import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
@@ -16,25 +23,33 @@ public class WebDriverWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(WebDriverWrapper.class);
     private static final int SOCKET_TIMEOUT_MS = 60 * 1000;
 
-    private Supplier<WebDriver> driverSupplier;
+    private final DriverBackend backend;
+    private final Supplier<WebDriver> driverSupplier;
     private WebDriver driver;
 
-    private WebDriverWrapper(Supplier<WebDriver> driverSupplier) {
-        this.driverSupplier = driverSupplier;
+    /**
+     * @param metricSuffix names the command timing metrics of the browser
+     * @param proxy host:port of the HTTP proxy to use, or null to connect directly
+     */
+    public WebDriverWrapper(DriverBackend backend, String metricSuffix, String proxy) {
+        this.backend = backend;
+        this.driverSupplier = () -> backend.createDriver(metricSuffix, proxy);
     }
 
+    /**
+     * Starts the browser. Throws when that fails, after cleaning up whatever was started; retrying is up to the
+     * caller (see {@link RetryPolicy}).
+     */
     public void start() {
         LOG.info("Initializing webDriver.");
         try {
             driver = driverSupplier.get();
             WebDriverHttpParamsSetter.setSoTimeout(SOCKET_TIMEOUT_MS);
             WebDriverUtils.enableTimeouts(driver);
-        } catch (Exception e) {
-            LOG.error("Error (re)initializing webDriver: ", e);
-            LOG.info("Sleeping 10 seconds and trying again.");
-            doSleep(10000);
-            restart();
-            return;
+        } catch (RuntimeException e) {
+            LOG.error("Error (re)initializing webDriver: {}", e.getMessage());
+            shutdown();
+            throw e;
         }
         doSleep(100);
     }
@@ -56,13 +71,79 @@ public class WebDriverWrapper {
         start();
     }
 
-    public static WebDriverWrapper phantomJs() {
-        DesiredCapabilities desiredCapabilities = DesiredCapabilities.phantomjs();
-        String[] args = new String[]{"--proxy-type=none", "--web-security=false"};
-        desiredCapabilities.setCapability("phantomjs.cli.args", args);
-        desiredCapabilities.setCapability("phantomjs.ghostdriver.cli.args", args);
-        desiredCapabilities.setCapability("phantomjs.page.settings.loadImages", false);
-        return new WebDriverWrapper(() -> new PhantomJSDriver(desiredCapabilities));
+    /**
+     * Cheap health probe: asks the browser for its current window handle.
+     */
+    public boolean isAlive() {
+        if (driver == null) {
+            return false;
+        }
+        try {
+            driver.getWindowHandle();
+            return true;
+        } catch (Exception e) {
+            LOG.warn("WebDriver health check failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return pid of the browser process behind this driver, or -1 if it cannot be determined
+     */
+    public int getProcessId() {
+        if (!(driver instanceof RemoteWebDriver)) {
+            return -1;
+        }
+        CommandExecutor executor = ((RemoteWebDriver) driver).getCommandExecutor();
+        if (executor instanceof TimedCommandExecutor) {
+            executor = ((TimedCommandExecutor) executor).getDelegate();
+        }
+        if (!(executor instanceof HttpCommandExecutor)) {
+            return -1;
+        }
+        return backend.findProcessId(((HttpCommandExecutor) executor).getAddressOfRemoteServer().getPort());
+    }
+
+    /**
+     * @return the cookies of all domains the browser has visited; WebDriver itself only exposes the cookies of the
+     * current page
+     */
+    public List<Map<String, Object>> exportCookies() {
+        return driver == null ? Collections.emptyList() : backend.exportCookies(driver);
+    }
+
+    /**
+     * Adds cookies exported by {@link #exportCookies()} from a browser of the same backend.
+     */
+    public void importCookies(List<Map<String, Object>> cookies) {
+        if (driver != null) {
+            backend.importCookies(driver, cookies);
+        }
+    }
+
+    public void clearCookies() {
+        if (driver != null) {
+            backend.clearCookies(driver);
+        }
+    }
+
+    public DriverBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return a browser of the plugin's backend, behind the plugin's caching proxy if enabled
+     */
+    public static WebDriverWrapper forPlugin(Graph.Type type) {
+        String proxy = null;
+        if (CachingProxy.isEnabled()) {
+            try {
+                proxy = "127.0.0.1:" + CachingProxy.forPlugin(type).getPort();
+            } catch (IOException e) {
+                LOG.error("Unable to start proxy for {}, connecting directly: {}", type, e.getMessage());
+            }
+        }
+        return new WebDriverWrapper(DriverBackend.forPlugin(type), type.toString(), proxy);
     }
 
     public WebDriver getDriver() {
@@ -0,0 +1,72 @@
+// Tracks DOM mutations and pending XHR/fetch requests of the page, so the server can wait until the page has settled
+// instead of sleeping. Installed once per page; navigating away removes it.
+(function () {
+    if (window.__watchboardReadiness) {
+        return;
+    }
+    var state = window.__watchboardReadiness = {pending: 0, lastActivity: Date.now()};
+
+    function activity() {
+        state.lastActivity = Date.now();
+    }
+
+    function finished() {
+        state.pending = Math.max(0, state.pending - 1);
+        activity();
+    }
+
+    var send = XMLHttpRequest.prototype.send;
+    XMLHttpRequest.prototype.send = function () {
+        var xhr = this;
+        var done = false;
+        state.pending++;
+        activity();
+        xhr.addEventListener('readystatechange', function () {
+            if (xhr.readyState === 4 && !done) {
+                done = true;
+                finished();
+            }
+        });
+        return send.apply(xhr, arguments);
+    };
+
+    if (window.fetch) {
+        var fetch = window.fetch;
+        window.fetch = function () {
+            state.pending++;
+            activity();
+            return fetch.apply(window, arguments).then(function (response) {
+                finished();
+                return response;
+            }, function (error) {
+                finished();
+                throw error;
+            });
+        };
+    }
+
+    if (window.MutationObserver) {
+        new MutationObserver(activity).observe(document, {childList: true, subtree: true, attributes: true, characterData: true});
+    }
+
+    // Calls done(true) once the document is loaded, no requests are pending, the DOM has not changed for quietMillis
+    // and readyWhen (a JavaScript expression) holds; done(false) after timeoutMillis.
+    state.await = function (readyWhen, quietMillis, timeoutMillis, done) {
+        var predicate = new Function('try { return !!(' + readyWhen + '); } catch (e) { return false; }');
+        var started = Date.now();
+        var check = function () {
+            var now = Date.now();
+            var quietFor = now - state.lastActivity;
+            if (document.readyState === 'complete' && state.pending === 0 && quietFor >= quietMillis && predicate()) {
+                done(true);
+            } else if (now - started >= timeoutMillis) {
+                done(false);
+            } else {
+                // Check again when the page could have become quiet, or soon if it already is.
+                var delay = quietFor < quietMillis ? quietMillis - quietFor : 50;
+                setTimeout(check, Math.min(delay, timeoutMillis - (now - started)));
+            }
+        };
+        check();
+    };
+})();
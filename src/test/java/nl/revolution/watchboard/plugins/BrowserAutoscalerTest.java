@@ -0,0 +1,115 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static nl.revolution.watchboard.plugins.BrowserAutoscaler.Decision.HOLD;
+import static nl.revolution.watchboard.plugins.BrowserAutoscaler.Decision.SCALE_DOWN;
+import static nl.revolution.watchboard.plugins.BrowserAutoscaler.Decision.SCALE_UP;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class BrowserAutoscalerTest {
+
+    private static final long LAGGING = 90_000;
+    private static final long BETWEEN_THRESHOLDS = 30_000;
+    private static final long CAUGHT_UP = 0;
+    private static final long FREE_MEMORY_MB = 4096;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MutableClock clock;
+    private BrowserAutoscaler autoscaler;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(1_000_000_000L);
+        autoscaler = new BrowserAutoscaler(CaptureScheduler.getInstance(), name -> null, clock);
+    }
+
+    @Test
+    public void scalesUpOnlyAfterSustainedLag() throws Exception {
+        assertThat(check(LAGGING, false), is(HOLD));
+        assertThat(check(LAGGING, false), is(HOLD));
+        assertThat(check(BETWEEN_THRESHOLDS, false), is(HOLD));
+        assertThat(check(LAGGING, false), is(HOLD));
+        assertThat(check(LAGGING, false), is(HOLD));
+        assertThat(check(LAGGING, false), is(SCALE_UP));
+    }
+
+    @Test
+    public void noDecisionWithinCooldown() throws Exception {
+        check(LAGGING, false);
+        check(LAGGING, false);
+        assertThat(check(LAGGING, false), is(SCALE_UP));
+
+        // Idle browser and no lag, but the previous decision was only 30 seconds ago.
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(SCALE_DOWN));
+    }
+
+    @Test
+    public void idleBrowserIsKeptWhileLagIsAboveScaleDownThreshold() throws Exception {
+        assertThat(check(BETWEEN_THRESHOLDS, true), is(HOLD));
+        assertThat(check(CAUGHT_UP, true), is(SCALE_DOWN));
+    }
+
+    @Test
+    public void doesNotScaleUpWithoutFreeMemory() throws Exception {
+        assertThat(autoscaler.decide(LAGGING, false, 100, 10), is(HOLD));
+        assertThat(autoscaler.decide(LAGGING, false, 100, 10), is(HOLD));
+        assertThat(autoscaler.decide(LAGGING, false, 100, 10), is(HOLD));
+        assertThat(autoscaler.decide(LAGGING, false, 100, 10), is(HOLD));
+    }
+
+    @Test
+    public void graphWithOpenCircuitDoesNotKeepBrowsers() throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(clock);
+        scheduler.setCircuitBreaker(1, 30, 900);
+        autoscaler = new BrowserAutoscaler(scheduler, name -> null, clock);
+
+        Graph graph = new Graph();
+        graph.setId("broken");
+        graph.setType(Graph.Type.CLOUDWATCH);
+        graph.setUrl("https://example.com/broken");
+        graph.setImagePath(new File(tempFolder.getRoot(), "broken.png").getAbsolutePath());
+        Dashboard dashboard = new Dashboard();
+        dashboard.setId("dashboard");
+        dashboard.getGraphs().add(graph);
+        Plugin plugin = new Plugin();
+        plugin.setType(Graph.Type.CLOUDWATCH);
+        plugin.setUpdateIntervalSeconds(30);
+        scheduler.synchronize(Collections.singletonList(dashboard), Collections.singletonList(plugin));
+
+        // The graph never gets an image and its circuit stays open; no browser can do anything about that.
+        CaptureJob job = scheduler.takeNextJob(Collections.singletonList(Graph.Type.CLOUDWATCH), 0);
+        scheduler.jobCompleted(job, false);
+        assertThat(job.getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(check(scheduler.getCaptureBacklogMillis(), false), is(HOLD));
+        }
+        assertThat(check(scheduler.getCaptureBacklogMillis(), true), is(SCALE_DOWN));
+    }
+
+    private BrowserAutoscaler.Decision check(long maxLagMillis, boolean idleWorkerAvailable) {
+        clock.advance(15_000);
+        return autoscaler.decide(maxLagMillis, idleWorkerAvailable, FREE_MEMORY_MB, 10);
+    }
+
+}
@@ -0,0 +1,160 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.utils.BenchmarkFixture;
+import nl.revolution.watchboard.utils.DriverBackend;
+import nl.revolution.watchboard.utils.ProcessStats;
+import nl.revolution.watchboard.utils.WebDriverUtils;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriver;
+
+import java.io.File;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures capture throughput for increasing browser pool sizes. Every pool slot is a real browser that loads and
+ * captures graphs from a local fixture page (drawn by JavaScript, so every capture costs browser CPU), taking its jobs
+ * from the scheduler like the plugin workers do. The numbers therefore include browser start-up, rendering and CPU
+ * contention between the browsers, and show where adding browsers stops paying off on the machine it runs on.
+ *
+ * The backend is the first argument ("phantomjs" by default, or "chrome"); chromedriver and Chrome are found through
+ * the 'webdriver.chrome.driver' and 'chrome.binary' system properties, or PATH.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nl.revolution.watchboard.plugins.CaptureSchedulerBenchmark
+ */
+public class CaptureSchedulerBenchmark {
+
+    private static final int GRAPHS = 64;
+    private static final long RUN_MILLIS = 30 * 1000;
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+    private static final int SERIES_POINTS = 2000;
+
+    public static void main(String... args) throws Exception {
+        String backendName = args.length > 0 ? args[0] : DriverBackend.PHANTOMJS;
+
+        System.out.println("Backend: " + backendName + ", " + Runtime.getRuntime().availableProcessors() + " CPUs.");
+        System.out.println("pool size | captures/s | speedup | p50 capture ms | browser RSS MB | overlapping captures");
+        try (BenchmarkFixture fixture = BenchmarkFixture.serve(1, 800, 400, SERIES_POINTS)) {
+            double baseline = 0;
+            for (int poolSize : POOL_SIZES) {
+                Result result = run(backendName, fixture.url("graph-"), poolSize);
+                if (result == null) {
+                    return;
+                }
+                if (baseline == 0) {
+                    baseline = result.capturesPerSecond;
+                }
+                System.out.printf("%9d | %10.2f | %6.2fx | %14d | %14d | %d%n", poolSize, result.capturesPerSecond,
+                        result.capturesPerSecond / baseline, result.medianCaptureMillis, result.rssMb, result.overlapping);
+            }
+        }
+    }
+
+    private static Result run(String backendName, String baseUrl, int poolSize) throws Exception {
+        CaptureScheduler scheduler = new CaptureScheduler(Clock.systemDefaultZone());
+
+        Plugin plugin = new Plugin();
+        plugin.setType(Graph.Type.CLOUDWATCH);
+        plugin.setUpdateIntervalSeconds(0);
+
+        Dashboard dashboard = new Dashboard();
+        dashboard.setId("benchmark");
+        for (int i = 0; i < GRAPHS; i++) {
+            Graph graph = new Graph();
+            graph.setId("graph-" + i);
+            graph.setType(Graph.Type.CLOUDWATCH);
+            graph.setUrl(baseUrl + i);
+            graph.setImagePath(new File(System.getProperty("java.io.tmpdir"), "benchmark-graph-" + i + ".png").getAbsolutePath());
+            dashboard.getGraphs().add(graph);
+        }
+        scheduler.synchronize(Collections.singletonList(dashboard), Collections.singletonList(plugin));
+
+        List<WebDriverWrapper> browsers = new ArrayList<>();
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                WebDriverWrapper browser = new WebDriverWrapper(BenchmarkFixture.backend(backendName), "benchmark", null);
+                browser.start();
+                browser.getDriver().manage().window().setSize(new Dimension(1000, 600));
+                browsers.add(browser);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Unable to start " + backendName + " browser " + (browsers.size() + 1) + ": " + e.getMessage().split("\n")[0]);
+            browsers.forEach(WebDriverWrapper::shutdown);
+            return null;
+        }
+
+        AtomicInteger captures = new AtomicInteger();
+        AtomicInteger overlapping = new AtomicInteger();
+        AtomicLong rssKb = new AtomicLong();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Boolean> inProgress = new ConcurrentHashMap<>();
+        long end = System.currentTimeMillis() + RUN_MILLIS;
+
+        List<Thread> workers = new ArrayList<>();
+        for (WebDriverWrapper browser : browsers) {
+            workers.add(new Thread(() -> {
+                WebDriver driver = browser.getDriver();
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        CaptureJob job = scheduler.takeNextJob(Collections.singletonList(Graph.Type.CLOUDWATCH), 100);
+                        if (job == null) {
+                            continue;
+                        }
+                        if (inProgress.putIfAbsent(job.getId(), Boolean.TRUE) != null) {
+                            overlapping.incrementAndGet();
+                        }
+                        long start = System.currentTimeMillis();
+                        boolean success = false;
+                        try {
+                            driver.get(job.getGraph().getUrl());
+                            WebDriverUtils.takeScreenShot(driver, driver.findElement(By.id("panel-0")), job.getGraph().getImagePath());
+                            success = true;
+                            latencies.add(System.currentTimeMillis() - start);
+                            captures.incrementAndGet();
+                        } catch (Exception e) {
+                            System.out.println("Capture of " + job.getId() + " failed: " + e.getMessage());
+                        }
+                        inProgress.remove(job.getId());
+                        scheduler.jobCompleted(job, success);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                rssKb.addAndGet(Math.max(0, ProcessStats.readRssKb(browser.getProcessId())));
+            }));
+        }
+
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        browsers.forEach(WebDriverWrapper::shutdown);
+
+        Result result = new Result();
+        result.capturesPerSecond = captures.get() * 1000.0 / RUN_MILLIS;
+        result.overlapping = overlapping.get();
+        Collections.sort(latencies);
+        result.medianCaptureMillis = latencies.isEmpty() ? -1 : latencies.get(latencies.size() / 2);
+        result.rssMb = rssKb.get() / 1024;
+        return result;
+    }
+
+    private static class Result {
+        double capturesPerSecond;
+        int overlapping;
+        long medianCaptureMillis;
+        long rssMb;
+    }
+
+}
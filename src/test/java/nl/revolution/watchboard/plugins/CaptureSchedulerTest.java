@@ -0,0 +1,536 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CaptureSchedulerTest {
+
+    private static final long START = 1_000_000_000L;
+    private static final List<Graph.Type> CLOUDWATCH = Collections.singletonList(Graph.Type.CLOUDWATCH);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MutableClock clock;
+    private CaptureScheduler scheduler;
+    private List<Plugin> plugins;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(START);
+        scheduler = new CaptureScheduler(clock);
+
+        Plugin plugin = new Plugin();
+        plugin.setType(Graph.Type.CLOUDWATCH);
+        plugin.setUpdateIntervalSeconds(30);
+        Plugin sonarPlugin = new Plugin();
+        sonarPlugin.setType(Graph.Type.SONAR);
+        sonarPlugin.setUpdateIntervalSeconds(30);
+        plugins = Arrays.asList(plugin, sonarPlugin);
+    }
+
+    @Test
+    public void initialOrderIsOldestImageFirst() throws Exception {
+        Graph recent = createGraph("recent", START - 5_000);
+        Graph old = createGraph("old", START - 60_000);
+        Graph missing = createGraph("missing", 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(recent, old, missing)), plugins);
+
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("missing"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("old"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("recent"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+    }
+
+    @Test
+    public void graphRefreshSecondsOverridesPluginInterval() throws Exception {
+        Graph fast = createGraph("fast", 0);
+        fast.setRefreshSeconds(10);
+        Graph normal = createGraph("normal", 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(fast, normal)), plugins);
+
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        clock.advance(10_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("fast"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        clock.advance(20_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("normal"));
+    }
+
+    @Test
+    public void jobIsHandedToOneWorkerAtATime() throws Exception {
+        Graph graph = createGraph("graph", 0);
+        graph.setRefreshSeconds(0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        scheduler.jobCompleted(job, true);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("graph"));
+    }
+
+    @Test
+    public void dueJobCanBePreloadedAndReleased() throws Exception {
+        Graph first = createGraph("first", 0);
+        Graph second = createGraph("second", START - 60_000);
+        Graph sonar = createGraph("sonar", Graph.Type.SONAR, 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(first, second, sonar)), plugins);
+
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("first"));
+        CaptureJob preloaded = scheduler.pollDueJob(Graph.Type.CLOUDWATCH);
+        assertThat(preloaded.getId(), is("second"));
+        assertThat(scheduler.pollDueJob(Graph.Type.CLOUDWATCH), is(nullValue()));
+
+        // A preloaded job that is never captured becomes available again.
+        scheduler.release(preloaded);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("second"));
+    }
+
+    @Test
+    public void preloadedJobIsTimedFromCaptureStart() throws Exception {
+        Graph first = createGraph("first", 0);
+        Graph second = createGraph("second", START - 60_000);
+        scheduler.synchronize(Collections.singletonList(createDashboard(first, second)), plugins);
+
+        CaptureJob current = scheduler.takeNextJob(CLOUDWATCH, 0);
+        CaptureJob preloaded = scheduler.pollDueJob(Graph.Type.CLOUDWATCH);
+        clock.advance(5_000);
+        scheduler.jobCompleted(current, true);
+
+        scheduler.captureStarted(preloaded);
+        clock.advance(1_000);
+        scheduler.jobCompleted(preloaded, true);
+        assertThat(preloaded.getLatency().toJSON().get("max"), is(1_000L));
+        assertThat(preloaded.getDeadline(), is(START + 5_000 + 30_000));
+    }
+
+    @Test
+    public void refreshJumpsAheadAndCoalesces() throws Exception {
+        Graph due = createGraph("due", 0);
+        Graph fresh = createGraph("fresh", START);
+        scheduler.synchronize(Collections.singletonList(createDashboard(due, fresh)), plugins);
+
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        assertThat(scheduler.requestRefresh("fresh", first), is(CaptureScheduler.RefreshStatus.QUEUED));
+        assertThat(scheduler.requestRefresh("fresh", second), is(CaptureScheduler.RefreshStatus.COALESCED));
+        assertThat(scheduler.requestRefresh("unknown", new CompletableFuture<>()), is(CaptureScheduler.RefreshStatus.NOT_FOUND));
+
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("fresh"));
+        assertThat(first.isDone(), is(false));
+
+        scheduler.jobCompleted(job, true);
+        assertThat(first.getNow(false), is(true));
+        assertThat(second.getNow(false), is(true));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("due"));
+    }
+
+    @Test
+    public void releasedRefreshStaysInPriorityLane() throws Exception {
+        Graph due = createGraph("due", 0);
+        Graph fresh = createGraph("fresh", START);
+        scheduler.synchronize(Collections.singletonList(createDashboard(due, fresh)), plugins);
+
+        CompletableFuture<Boolean> published = new CompletableFuture<>();
+        scheduler.requestRefresh("fresh", published);
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("fresh"));
+
+        // E.g. the session of the browser that took it was not ready.
+        scheduler.release(job);
+        assertThat(published.isDone(), is(false));
+        job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("fresh"));
+
+        scheduler.jobCompleted(job, true);
+        assertThat(published.getNow(false), is(true));
+    }
+
+    @Test
+    public void refreshStaysInPriorityLaneWhenIntervalChanges() throws Exception {
+        Graph due = createGraph("due", 0);
+        Graph fresh = createGraph("fresh", START);
+        scheduler.synchronize(Collections.singletonList(createDashboard(fresh)), plugins);
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+        scheduler.synchronize(Collections.singletonList(createDashboard(due, fresh)), plugins);
+
+        CompletableFuture<Boolean> published = new CompletableFuture<>();
+        assertThat(scheduler.requestRefresh("fresh", published), is(CaptureScheduler.RefreshStatus.QUEUED));
+        plugins.get(0).setUpdateIntervalSeconds(60);
+        scheduler.synchronize(Collections.singletonList(createDashboard(due, fresh)), plugins);
+
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("fresh"));
+        scheduler.jobCompleted(job, true);
+        assertThat(published.getNow(false), is(true));
+    }
+
+    @Test
+    public void refreshDuringCaptureGetsCaptureOfItsOwn() throws Exception {
+        Graph due = createGraph("due", 0);
+        Graph fresh = createGraph("fresh", START - 60_000);
+        scheduler.synchronize(Collections.singletonList(createDashboard(due, fresh)), plugins);
+
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("due"));
+        clock.advance(1_000);
+        CompletableFuture<Boolean> published = new CompletableFuture<>();
+        assertThat(scheduler.requestRefresh("due", published), is(CaptureScheduler.RefreshStatus.QUEUED));
+        assertThat(scheduler.requestRefresh("due", new CompletableFuture<>()), is(CaptureScheduler.RefreshStatus.COALESCED));
+
+        // The running capture may have loaded the page before the request was made.
+        scheduler.jobCompleted(job, true);
+        assertThat(published.isDone(), is(false));
+
+        job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("due"));
+        scheduler.jobCompleted(job, true);
+        assertThat(published.getNow(false), is(true));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("fresh"));
+    }
+
+    @Test
+    public void refreshesAreRateLimited() throws Exception {
+        Graph first = createGraph("first", START);
+        Graph second = createGraph("second", START);
+        scheduler.synchronize(Collections.singletonList(createDashboard(first, second)), plugins);
+        scheduler.setRefreshLimit(1);
+
+        assertThat(scheduler.requestRefresh("first", new CompletableFuture<>()), is(CaptureScheduler.RefreshStatus.QUEUED));
+        assertThat(scheduler.requestRefresh("second", new CompletableFuture<>()), is(CaptureScheduler.RefreshStatus.RATE_LIMITED));
+
+        clock.advance(60_000);
+        assertThat(scheduler.requestRefresh("second", new CompletableFuture<>()), is(CaptureScheduler.RefreshStatus.QUEUED));
+        assertThat(scheduler.getGraphIds("dashboard"), is(Arrays.asList("first", "second")));
+    }
+
+    @Test
+    public void lagIsMeasuredAgainstTargetInterval() throws Exception {
+        Graph graph = createGraph("graph", START - 45_000);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+
+        assertThat(scheduler.getLagMillis().get("graph"), is(15_000L));
+
+        clock.advance(5_000);
+        assertThat(scheduler.getLagMillis().get("graph"), is(20_000L));
+    }
+
+    @Test
+    public void removedGraphIsNotRescheduled() throws Exception {
+        Graph graph = createGraph("graph", 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+
+        scheduler.synchronize(Collections.singletonList(createDashboard()), plugins);
+        scheduler.jobCompleted(job, true);
+
+        clock.advance(60_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+        assertThat(scheduler.getJobs().isEmpty(), is(true));
+    }
+
+    @Test
+    public void idleBrowserStealsFromBackloggedType() throws Exception {
+        scheduler.synchronize(Collections.singletonList(createDashboard(
+                createGraph("sonar-1", Graph.Type.SONAR, START), createGraph("sonar-2", Graph.Type.SONAR, START))), plugins);
+
+        // Without a session, stealing is only worth a login once the type is backlogged.
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0).getId(), is("sonar-2"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0), is(nullValue()));
+
+        // A browser that already holds a session takes the remaining job right away.
+        List<Graph.Type> sessions = Arrays.asList(Graph.Type.CLOUDWATCH, Graph.Type.SONAR);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, sessions, 0).getId(), is("sonar-1"));
+    }
+
+    @Test
+    public void browserWithStartingSessionNeitherTakesNorSteals() throws Exception {
+        scheduler.synchronize(Collections.singletonList(createDashboard(createGraph("cloudwatch", 0),
+                createGraph("sonar-1", Graph.Type.SONAR, START), createGraph("sonar-2", Graph.Type.SONAR, START))), plugins);
+
+        // Still logging in to its own type: nothing to hand out, not even backlogged work of other types.
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, type -> false, 0), is(nullValue()));
+
+        // Logged in, but another browser is logging in to the backlogged type already.
+        scheduler.reportStartingSessions("sonar-browser", EnumSet.of(Graph.Type.SONAR));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, CLOUDWATCH::contains, 0).getId(), is("cloudwatch"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, CLOUDWATCH::contains, 0), is(nullValue()));
+
+        scheduler.reportStartingSessions("sonar-browser", EnumSet.noneOf(Graph.Type.class));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, CLOUDWATCH::contains, 0).getId(), is("sonar-2"));
+    }
+
+    @Test
+    public void browserWaitingForItsSessionTakesJobWhenSessionBecomesReady() throws Exception {
+        scheduler.synchronize(Collections.singletonList(createDashboard(createGraph("cloudwatch", 0))), plugins);
+        AtomicBoolean ready = new AtomicBoolean();
+
+        // The job is due while the session is still logging in; the browser waits for it instead of taking it.
+        CompletableFuture<CaptureJob> taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, type -> ready.get(), 60_000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertThat(taken.isDone(), is(false));
+
+        ready.set(true);
+        scheduler.wakeUp();
+        assertThat(taken.get(5, TimeUnit.SECONDS).getId(), is("cloudwatch"));
+    }
+
+    @Test
+    public void singleWaitingJobIsStolenAfterTimeout() throws Exception {
+        scheduler.synchronize(Collections.singletonList(createDashboard(createGraph("sonar", Graph.Type.SONAR, START))), plugins);
+
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0), is(nullValue()));
+
+        clock.advance(30_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0).getId(), is("sonar"));
+    }
+
+    @Test
+    public void homeTypeIsServedBeforeStealing() throws Exception {
+        scheduler.synchronize(Collections.singletonList(createDashboard(
+                createGraph("sonar-1", Graph.Type.SONAR, 0), createGraph("sonar-2", Graph.Type.SONAR, 0),
+                createGraph("cloudwatch", Graph.Type.CLOUDWATCH, START))), plugins);
+
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0).getId(), is("cloudwatch"));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, CLOUDWATCH, 0).getType(), is(Graph.Type.SONAR));
+    }
+
+    @Test
+    public void unwatchedGraphsFallBackToBackgroundInterval() throws Exception {
+        scheduler.setDemandDriven(true, 600, 120);
+        scheduler.synchronize(Collections.singletonList(createDashboard(createGraph("graph", 0))), plugins);
+        scheduler.dashboardViewed("dashboard", "viewer");
+
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+        clock.advance(30_000);
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+
+        // The viewer is gone by the time the graph is rescheduled.
+        clock.advance(150_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("graph"));
+        scheduler.jobCompleted(scheduler.getJobs().get(0), true);
+
+        clock.advance(30_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+        clock.advance(570_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("graph"));
+    }
+
+    @Test
+    public void openingDashboardPromotesItsStaleGraphs() throws Exception {
+        scheduler.setDemandDriven(true, 600, 120);
+        scheduler.synchronize(Collections.singletonList(createDashboard(createGraph("graph", START))), plugins);
+
+        // Nobody watches: the graph was captured just now, so it isn't due for another ten minutes.
+        scheduler.jobCompleted(scheduler.takeNextJob(CLOUDWATCH, 0), true);
+        clock.advance(60_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        scheduler.dashboardViewed("dashboard", "viewer");
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getId(), is("graph"));
+    }
+
+    @Test
+    public void unchangedImagesBackOffAndChangeSnapsBack() throws Exception {
+        scheduler.setAdaptive(true, 120);
+        Graph graph = createGraph("graph", 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+
+        // Base interval is 30 seconds; identical images double it up to 120 seconds.
+        assertThat(captureAndMeasureInterval(graph, "same"), is(30_000L));
+        assertThat(captureAndMeasureInterval(graph, "same"), is(60_000L));
+        assertThat(captureAndMeasureInterval(graph, "same"), is(120_000L));
+        assertThat(captureAndMeasureInterval(graph, "same"), is(120_000L));
+        assertThat(captureAndMeasureInterval(graph, "different"), is(30_000L));
+    }
+
+    @Test
+    public void failingGraphOpensCircuitWithGrowingBackoff() throws Exception {
+        scheduler.setCircuitBreaker(3, 30, 900);
+        Graph graph = createGraph("graph", 0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+
+        assertThat(failAndMeasureInterval(), is(30_000L));
+        assertThat(failAndMeasureInterval(), is(30_000L));
+
+        // Third failure opens the circuit with the base back-off, +/- 20% jitter.
+        CaptureJob job = scheduler.getJobs().get(0);
+        long backoff = failAndMeasureInterval();
+        assertThat(job.getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(backoff >= 24_000 && backoff <= 36_000, is(true));
+
+        // The probe fails, so the circuit opens again with twice the back-off.
+        backoff = failAndMeasureInterval();
+        assertThat(job.getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(backoff >= 48_000 && backoff <= 72_000, is(true));
+
+        // A successful probe closes the circuit and restores the normal interval.
+        assertThat(captureAndMeasureInterval(graph, "image"), is(30_000L));
+        assertThat(job.getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(job.getCircuitBreaker().getConsecutiveFailures(), is(0));
+    }
+
+    @Test
+    public void identicalGraphsShareOneCapture() throws Exception {
+        Graph graph = createGraph("graph", 0);
+        Graph copy = createGraph("copy", 0);
+        copy.setUrl(graph.getUrl());
+        copy.setRefreshSeconds(10);
+        Graph other = createGraph("other", START);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph, copy, other)), plugins);
+
+        // One job for both graphs, refreshed at the shortest interval of the two.
+        assertThat(scheduler.getJobs().size(), is(2));
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(job.getId(), is("graph"));
+        assertThat(job.getIntervalSeconds(), is(10));
+
+        Files.write(new File(graph.getImagePath()).toPath(), "image".getBytes(StandardCharsets.UTF_8));
+        scheduler.jobCompleted(job, true);
+        assertThat(new String(Files.readAllBytes(new File(copy.getImagePath()).toPath()), StandardCharsets.UTF_8), is("image"));
+    }
+
+    @Test
+    public void slowCaptureIsHedgedAndFirstResultWins() throws Exception {
+        scheduler.setHedging(true, 1, 100);
+        Graph graph = createGraph("graph", 0);
+        graph.setRefreshSeconds(0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+        for (int i = 0; i < 10; i++) {
+            CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+            clock.advance(1_000);
+            scheduler.jobCompleted(job, true);
+        }
+
+        CaptureJob slow = scheduler.takeNextJob(CLOUDWATCH, 0);
+        clock.advance(1_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        // Running longer than its p95, so an idle browser with a session gets a hedge attempt.
+        clock.advance(1_000);
+        CaptureJob hedge = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(hedge.getHedgedJob(), is(slow));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+
+        Files.write(new File(hedge.getGraph().getImagePath()).toPath(), "hedged".getBytes(StandardCharsets.UTF_8));
+        scheduler.jobCompleted(hedge, true);
+        assertThat(new String(Files.readAllBytes(new File(graph.getImagePath()).toPath()), StandardCharsets.UTF_8), is("hedged"));
+        assertThat(slow.isCancelled(), is(true));
+
+        // The job is only scheduled again once the cancelled attempt has stopped.
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(nullValue()));
+        scheduler.jobCompleted(slow, false);
+        assertThat(slow.getCircuitBreaker().getConsecutiveFailures(), is(0));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(slow));
+    }
+
+    @Test
+    public void releasedJobDropsItsHedge() throws Exception {
+        scheduler.setHedging(true, 1, 100);
+        Graph graph = createGraph("graph", 0);
+        graph.setRefreshSeconds(0);
+        scheduler.synchronize(Collections.singletonList(createDashboard(graph)), plugins);
+        for (int i = 0; i < 10; i++) {
+            CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+            clock.advance(1_000);
+            scheduler.jobCompleted(job, true);
+        }
+        CaptureJob slow = scheduler.takeNextJob(CLOUDWATCH, 0);
+        clock.advance(2_000);
+        CaptureJob hedge = scheduler.takeNextJob(CLOUDWATCH, 0);
+        assertThat(hedge.getHedgedJob(), is(slow));
+
+        // E.g. the session of the browser holding the regular attempt broke before it got to the capture.
+        scheduler.release(slow);
+        assertThat(hedge.isCancelled(), is(true));
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0), is(slow));
+
+        // The stale hedge is not credited to the new attempt, and doesn't stand in the way of a new hedge.
+        Files.write(new File(hedge.getGraph().getImagePath()).toPath(), "hedged".getBytes(StandardCharsets.UTF_8));
+        scheduler.jobCompleted(hedge, true);
+        assertThat(new File(graph.getImagePath()).exists(), is(false));
+        assertThat(slow.isAwaitingPrimary(), is(false));
+        clock.advance(2_000);
+        assertThat(scheduler.takeNextJob(CLOUDWATCH, 0).getHedgedJob(), is(slow));
+    }
+
+    private long failAndMeasureInterval() throws Exception {
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        scheduler.jobCompleted(job, false);
+
+        long interval = job.getDeadline() - clock.millis();
+        clock.advance(interval);
+        return interval;
+    }
+
+    private long captureAndMeasureInterval(Graph graph, String imageContent) throws Exception {
+        CaptureJob job = scheduler.takeNextJob(CLOUDWATCH, 0);
+        File image = new File(graph.getImagePath());
+        Files.write(image.toPath(), imageContent.getBytes(StandardCharsets.UTF_8));
+        image.setLastModified(clock.millis());
+        scheduler.jobCompleted(job, true);
+
+        long interval = job.getDeadline() - clock.millis();
+        clock.advance(interval);
+        return interval;
+    }
+
+    private Graph createGraph(String id, long lastModified) throws Exception {
+        return createGraph(id, Graph.Type.CLOUDWATCH, lastModified);
+    }
+
+    private Graph createGraph(String id, Graph.Type type, long lastModified) throws Exception {
+        File image = new File(tempFolder.getRoot(), id + ".png");
+        if (lastModified > 0) {
+            image.createNewFile();
+            image.setLastModified(lastModified);
+        }
+
+        Graph graph = new Graph();
+        graph.setId(id);
+        graph.setType(type);
+        graph.setUrl("https://example.com/" + id);
+        graph.setImagePath(image.getAbsolutePath());
+        return graph;
+    }
+
+    private Dashboard createDashboard(Graph... graphs) {
+        Dashboard dashboard = new Dashboard();
+        dashboard.setId("dashboard");
+        dashboard.getGraphs().addAll(Arrays.asList(graphs));
+        return dashboard;
+    }
+
+}
@@ -0,0 +1,40 @@
+package nl.revolution.watchboard.plugins;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+class MutableClock extends Clock {
+
+    private long millis;
+
+    MutableClock(long millis) {
+        this.millis = millis;
+    }
+
+    void advance(long deltaMillis) {
+        millis += deltaMillis;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+}
@@ -0,0 +1,166 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.utils.ReflectionUtils;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PluginSessionTest {
+
+    private MutableClock clock;
+    private ExecutorService executor;
+    private List<WebDriverWrapper> drivers;
+    private List<WatchboardPlugin> standbyPlugins;
+    private boolean failDriverStarts;
+
+    @Before
+    public void setUp() {
+        // Single attempts for driver starts and logins, so failures don't wait for retries.
+        Config config = mock(Config.class);
+        when(config.getInt(anyString(), anyInt())).thenAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            return ((String) args[0]).endsWith(".maxAttempts") ? 1 : args[1];
+        });
+        ReflectionUtils.setStaticValue(Config.class, "instance", config);
+
+        clock = new MutableClock(1_000_000_000L);
+        executor = Executors.newSingleThreadExecutor();
+        drivers = new ArrayList<>();
+        standbyPlugins = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        ReflectionUtils.setStaticValue(Config.class, "instance", null);
+    }
+
+    @Test
+    public void failedStartupKeepsSessionOutOfRotationUntilRetry() throws Exception {
+        PluginSession session = createSession(plugin());
+        failDriverStarts = true;
+        session.startAsync(executor);
+        awaitExecutor();
+
+        assertThat(session.getState(), is(PluginSession.State.FAILED));
+        session.rotateIfNeeded();
+        awaitExecutor();
+        assertThat(drivers.size(), is(1));
+
+        failDriverStarts = false;
+        clock.advance(60 * 1000);
+        session.rotateIfNeeded();
+        awaitExecutor();
+        assertThat(drivers.size(), is(2));
+        assertThat(session.isReady(), is(true));
+        assertThat(session.activePlugin(), is(standbyPlugins.get(0)));
+    }
+
+    @Test
+    public void readyListenerIsCalledWhenLoginHasFinished() throws Exception {
+        PluginSession session = createSession(plugin());
+        List<PluginSession.State> statesSeen = new ArrayList<>();
+        session.setReadyListener(() -> statesSeen.add(session.getState()));
+        session.startAsync(executor);
+        awaitExecutor();
+        assertThat(statesSeen, is(Collections.singletonList(PluginSession.State.READY)));
+
+        session.recover("test");
+        awaitExecutor();
+        assertThat(statesSeen.size(), is(2));
+    }
+
+    @Test
+    public void failedStandbyDoesNotMakeSessionReady() throws Exception {
+        PluginSession session = createSession(plugin());
+        session.start();
+        failDriverStarts = true;
+        session.recover("test");
+        awaitExecutor();
+
+        assertThat(session.getState(), is(PluginSession.State.FAILED));
+        session.rotateIfNeeded();
+        awaitExecutor();
+        assertThat(drivers.size(), is(2));
+    }
+
+    @Test
+    public void recoveryIsDelayedAfterFailedRotation() throws Exception {
+        PluginSession session = createSession(plugin());
+        session.start();
+        failDriverStarts = true;
+        session.restart("test");
+        awaitExecutor();
+        assertThat(session.isReady(), is(true));
+
+        session.recover("test");
+        awaitExecutor();
+        assertThat(session.getState(), is(PluginSession.State.FAILED));
+        assertThat(drivers.size(), is(2));
+    }
+
+    @Test
+    public void handoffSwitchesToStandbyAndRetiresOldBrowser() throws Exception {
+        WatchboardPlugin plugin = plugin();
+        PluginSession session = createSession(plugin);
+        session.start();
+        session.recover("test");
+        awaitExecutor();
+        assertThat(session.isReady(), is(true));
+        verify(drivers.get(0), never()).shutdown();
+
+        assertThat(session.activePlugin(), is(standbyPlugins.get(0)));
+        awaitExecutor();
+        verify(plugin).shutdown();
+        verify(drivers.get(0)).shutdown();
+        verify(drivers.get(1), never()).shutdown();
+    }
+
+    private PluginSession createSession(WatchboardPlugin plugin) {
+        return new PluginSession("test", plugin, this::createDriver, () -> {
+            WatchboardPlugin standbyPlugin = plugin();
+            standbyPlugins.add(standbyPlugin);
+            return standbyPlugin;
+        }, executor, clock);
+    }
+
+    private WebDriverWrapper createDriver() {
+        WebDriverWrapper driver = mock(WebDriverWrapper.class);
+        if (failDriverStarts) {
+            doThrow(new IllegalStateException("Browser did not start.")).when(driver).start();
+        }
+        drivers.add(driver);
+        return driver;
+    }
+
+    private static WatchboardPlugin plugin() {
+        WatchboardPlugin plugin = mock(WatchboardPlugin.class);
+        when(plugin.getName()).thenReturn("CloudWatch");
+        when(plugin.getGraphType()).thenReturn(Graph.Type.CLOUDWATCH);
+        return plugin;
+    }
+
+    private void awaitExecutor() throws Exception {
+        executor.submit(() -> { }).get();
+    }
+
+}
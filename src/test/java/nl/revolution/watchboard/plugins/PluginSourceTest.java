@@ -0,0 +1,46 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class PluginSourceTest {
+
+    @Test
+    public void topologyFollowsBrowserInstancesAndPoolSizes() throws Exception {
+        Plugin cloudWatch = createPlugin(Graph.Type.CLOUDWATCH, "browser1", 2);
+        Plugin sonar = createPlugin(Graph.Type.SONAR, "browser1", 1);
+        Plugin kibana = createPlugin(Graph.Type.KIBANA, "browser2", 1);
+
+        Map<String, Set<Graph.Type>> topology = PluginSource.topology(Arrays.asList("browser1", "browser2"),
+                Arrays.asList(cloudWatch, sonar, kibana), type -> type != Graph.Type.KIBANA);
+        assertThat(topology.keySet().toString(), is("[browser1, browser1#2]"));
+        assertThat(topology.get("browser1"), is(EnumSet.of(Graph.Type.CLOUDWATCH, Graph.Type.SONAR)));
+        assertThat(topology.get("browser1#2"), is(EnumSet.of(Graph.Type.CLOUDWATCH)));
+
+        // The first Kibana graph is added and Sonar moves to the other browser; browser1#2 is untouched.
+        sonar.setBrowserInstance("browser2");
+        topology = PluginSource.topology(Arrays.asList("browser1", "browser2"),
+                Arrays.asList(cloudWatch, sonar, kibana), type -> true);
+        assertThat(topology.get("browser1"), is(EnumSet.of(Graph.Type.CLOUDWATCH)));
+        assertThat(topology.get("browser1#2"), is(EnumSet.of(Graph.Type.CLOUDWATCH)));
+        assertThat(topology.get("browser2"), is(EnumSet.of(Graph.Type.KIBANA, Graph.Type.SONAR)));
+    }
+
+    private Plugin createPlugin(Graph.Type type, String browserInstance, int poolSize) {
+        Plugin plugin = new Plugin();
+        plugin.setType(type);
+        plugin.setBrowserInstance(browserInstance);
+        plugin.setBrowserPoolSize(poolSize);
+        return plugin;
+    }
+
+}
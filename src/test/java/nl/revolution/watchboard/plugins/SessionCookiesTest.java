@@ -0,0 +1,63 @@
+package nl.revolution.watchboard.plugins;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SessionCookiesTest {
+
+    private static final String ACCOUNT = "SONAR|https://sonar/sessions/new|watchboard";
+    private static final long MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MutableClock clock = new MutableClock(1_000_000);
+
+    @Test
+    public void cookiesSurviveARestartInAnEncryptedFile() throws Exception {
+        File file = new File(folder.getRoot(), "sessions.bin");
+        new SessionCookies(file, "secret".toCharArray(), MAX_AGE_MILLIS, clock).put(ACCOUNT, cookies("s3ss10n"));
+
+        assertThat(new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1).contains("s3ss10n"), is(false));
+        List<Map<String, Object>> restored = new SessionCookies(file, "secret".toCharArray(), MAX_AGE_MILLIS, clock).get(ACCOUNT);
+        assertThat(restored.get(0).get("value"), is("s3ss10n"));
+        assertThat(new SessionCookies(file, "other".toCharArray(), MAX_AGE_MILLIS, clock).get(ACCOUNT), is(nullValue()));
+    }
+
+    @Test
+    public void cookiesExpireCountingFromTheLogin() {
+        SessionCookies store = new SessionCookies(null, null, MAX_AGE_MILLIS, clock);
+        store.put(ACCOUNT, cookies("first"));
+        clock.advance(MAX_AGE_MILLIS / 2);
+        store.update(ACCOUNT, cookies("refreshed"));
+        assertThat(store.get(ACCOUNT).get(0).get("value"), is("refreshed"));
+
+        clock.advance(MAX_AGE_MILLIS / 2 + 1);
+        assertThat(store.get(ACCOUNT), is(nullValue()));
+        store.update(ACCOUNT, cookies("too late"));
+        assertThat(store.get(ACCOUNT), is(nullValue()));
+    }
+
+    private static List<Map<String, Object>> cookies(String value) {
+        Map<String, Object> cookie = new HashMap<>();
+        cookie.put("name", "JSESSIONID");
+        cookie.put("value", value);
+        cookie.put("domain", "sonar");
+        cookie.put("httponly", true);
+        return Collections.singletonList(cookie);
+    }
+
+}
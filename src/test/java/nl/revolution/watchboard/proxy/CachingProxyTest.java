@@ -0,0 +1,134 @@
+package nl.revolution.watchboard.proxy;
+
+import com.sun.net.httpserver.HttpServer;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CachingProxyTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer fixture;
+    private AtomicInteger fixtureRequests = new AtomicInteger();
+    private CachingProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        fixture.createContext("/", exchange -> {
+            fixtureRequests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = ("content of " + path).getBytes(StandardCharsets.UTF_8);
+            if (path.equals("/api/data")) {
+                exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        fixture.start();
+
+        ContentStore store = new ContentStore(folder.newFolder("cache"), 1024 * 1024);
+        proxy = new CachingProxy("TEST", store, () -> Collections.singletonList("blocked.example.com"), HOUR_MILLIS,
+                Clock.systemUTC());
+    }
+
+    @After
+    public void tearDown() {
+        proxy.stop();
+        fixture.stop(0);
+    }
+
+    @Test
+    public void staticAssetsAreServedFromCache() throws Exception {
+        String url = "http://127.0.0.1:" + fixture.getAddress().getPort() + "/bundle.js";
+        assertThat(get(url), is("200 content of /bundle.js"));
+        assertThat(get(url), is("200 content of /bundle.js"));
+        assertThat(fixtureRequests.get(), is(1));
+
+        String apiUrl = "http://127.0.0.1:" + fixture.getAddress().getPort() + "/api/data";
+        get(apiUrl);
+        get(apiUrl);
+        assertThat(fixtureRequests.get(), is(3));
+
+        assertThat(Metrics.getInstance().getCount("proxy.hits.TEST"), is(1L));
+        assertThat(Metrics.getInstance().getCount("proxy.misses.TEST"), is(3L));
+    }
+
+    @Test
+    public void blockedHostsAreRefused() throws Exception {
+        assertThat(get("http://beacon.blocked.example.com/track.gif"), is("403 "));
+        assertThat(fixtureRequests.get(), is(0));
+    }
+
+    @Test
+    public void invalidContentLengthIsRefused() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", proxy.getPort())) {
+            String request = "POST http://127.0.0.1:" + fixture.getAddress().getPort() + "/api/data HTTP/1.1\r\n"
+                    + "Content-Length: lots\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            String response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)).readLine();
+            assertThat(response.startsWith("HTTP/1.1 400"), is(true));
+        }
+        assertThat(fixtureRequests.get(), is(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedAndStoreSurvivesRestart() throws Exception {
+        File directory = folder.newFolder("lru");
+        ContentStore store = new ContentStore(directory, 2500);
+        long expiresAt = System.currentTimeMillis() + HOUR_MILLIS;
+        store.put(entry("a", expiresAt));
+        store.put(entry("b", expiresAt));
+        assertThat(store.get("a", System.currentTimeMillis()) != null, is(true));
+        store.put(entry("c", expiresAt));
+
+        ContentStore reopened = new ContentStore(directory, 2500);
+        assertThat(reopened.getEntryCount(), is(2));
+        assertThat(reopened.get("b", System.currentTimeMillis()) == null, is(true));
+        assertThat(new String(reopened.get("a", System.currentTimeMillis()).body, StandardCharsets.UTF_8).length(), is(1000));
+        assertThat(reopened.get("c", expiresAt) == null, is(true));
+    }
+
+    private ContentStore.Entry entry(String url, long expiresAt) {
+        byte[] body = new byte[1000];
+        Arrays.fill(body, (byte) 'x');
+        return new ContentStore.Entry(url, expiresAt, 200, "OK", Collections.emptyList(), body);
+    }
+
+    private String get(String url) throws Exception {
+        Proxy httpProxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", proxy.getPort()));
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(httpProxy);
+        int status = connection.getResponseCode();
+        String body = status >= 400 ? "" : IOUtils.toString(connection.getInputStream(), "UTF-8");
+        return status + " " + body;
+    }
+
+}
@@ -0,0 +1,74 @@
+package nl.revolution.watchboard.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Local web server for the benchmarks, serving a page of graphs drawn by JavaScript on every path, so every capture
+ * costs browser CPU like a real dashboard does. Each graph is a panel with id 'panel-&lt;n&gt;' holding a random walk
+ * drawn as an SVG polyline.
+ */
+public class BenchmarkFixture implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private BenchmarkFixture(String page) throws IOException {
+        byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Starts serving a page with the given number of graph panels of width x height pixels, each drawing a series of
+     * the given number of points.
+     */
+    public static BenchmarkFixture serve(int panels, int width, int height, int seriesPoints) throws IOException {
+        return new BenchmarkFixture("<!DOCTYPE html><html><head><style>" +
+                "body { margin: 0; font-family: sans-serif; }" +
+                ".panel { display: inline-block; width: " + width + "px; height: " + height + "px; margin: 10px; border: 1px solid #ccc; }" +
+                "</style></head><body><div id='grid'></div><script>" +
+                "var html = '';" +
+                "for (var p = 0; p < " + panels + "; p++) {" +
+                "  var points = [], value = " + height / 2 + ";" +
+                "  for (var x = 0; x < " + seriesPoints + "; x++) {" +
+                "    value = Math.max(0, Math.min(" + height + ", value + (Math.random() - 0.5) * 40));" +
+                "    points.push((x * " + width + " / " + seriesPoints + ").toFixed(1) + ',' + value.toFixed(1));" +
+                "  }" +
+                "  html += \"<div class='panel' id='panel-\" + p + \"'><svg width='" + width + "' height='" + height + "'>\"" +
+                "    + \"<polyline fill='none' stroke='#1f77b4' stroke-width='2' points='\" + points.join(' ') + \"'/></svg></div>\";" +
+                "}" +
+                "document.getElementById('grid').innerHTML = html;" +
+                "</script></body></html>");
+    }
+
+    /**
+     * @return the backend with the given name, "chrome" or "phantomjs"; chromedriver and Chrome are found through the
+     * 'webdriver.chrome.driver' and 'chrome.binary' system properties, or PATH
+     */
+    public static DriverBackend backend(String name) {
+        return DriverBackend.CHROME.equals(name)
+                ? new ChromeBackend(System.getProperty("webdriver.chrome.driver"), System.getProperty("chrome.binary"))
+                : new PhantomJsBackend();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,35 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.metrics.LatencyHistogram;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CaptureContextTest {
+
+    @Test
+    public void timeoutIsDerivedFromHistoryAndClamped() throws Exception {
+        LatencyHistogram history = new LatencyHistogram();
+        for (int i = 0; i < 19; i++) {
+            history.record(1000);
+        }
+        // Too little history: use the maximum.
+        assertThat(CaptureContext.derivedTimeoutMillis(history, 3, 2000, 30000), is(30000L));
+
+        history.record(1000);
+        long timeout = CaptureContext.derivedTimeoutMillis(history, 3, 2000, 30000);
+        assertThat(timeout >= 3000 && timeout <= 3300, is(true));
+
+        assertThat(CaptureContext.derivedTimeoutMillis(history, 3, 5000, 30000), is(5000L));
+        assertThat(CaptureContext.derivedTimeoutMillis(history, 3, 1000, 2000), is(2000L));
+    }
+
+    @Test
+    public void outsideCaptureTheMaximumIsUsed() throws Exception {
+        assertThat(CaptureContext.timeoutSeconds("pageLoad", 15), is(15L));
+        assertThat(CaptureContext.remainingSeconds(60), is(60L));
+        assertThat(CaptureContext.isCancelled(), is(false));
+    }
+
+}
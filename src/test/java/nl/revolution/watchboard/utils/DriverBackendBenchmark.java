@@ -0,0 +1,74 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares capture latency, image size and browser memory of the driver backends on a local fixture page: a grid of
+ * graphs drawn by JavaScript, of which one panel is captured, like the plugins do.
+ *
+ * Backends whose browser can't be started (e.g. no chromedriver installed) are skipped. Chromedriver and Chrome are
+ * found through the 'webdriver.chrome.driver' and 'chrome.binary' system properties, or PATH.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nl.revolution.watchboard.utils.DriverBackendBenchmark -Dexec.args="phantomjs chrome"
+ */
+public class DriverBackendBenchmark {
+
+    private static final int WARMUP_CAPTURES = 3;
+    private static final int CAPTURES = 20;
+    private static final int PANELS = 12;
+
+    public static void main(String... args) throws Exception {
+        List<String> backends = args.length > 0 ? Arrays.asList(args) : Arrays.asList(DriverBackend.PHANTOMJS, DriverBackend.CHROME);
+
+        System.out.println("backend   | start ms | capture p50 ms | capture p95 ms | image kB | browser RSS MB");
+        try (BenchmarkFixture fixture = BenchmarkFixture.serve(PANELS, 460, 300, 110)) {
+            for (String name : backends) {
+                run(name, fixture.url("dashboard"));
+            }
+        }
+    }
+
+    private static void run(String name, String url) throws Exception {
+        WebDriverWrapper wrapper = new WebDriverWrapper(BenchmarkFixture.backend(name), "benchmark", null);
+        long startedAt = System.currentTimeMillis();
+        try {
+            wrapper.start();
+        } catch (RuntimeException e) {
+            System.out.printf("%-9s | not available: %s%n", name, e.getMessage().split("\n")[0]);
+            return;
+        }
+        long startMillis = System.currentTimeMillis() - startedAt;
+
+        File image = File.createTempFile("benchmark-" + name, ".png");
+        try {
+            WebDriver driver = wrapper.getDriver();
+            driver.manage().window().setSize(new Dimension(1500, 1000));
+            List<Long> latencies = new ArrayList<>();
+            for (int i = 0; i < WARMUP_CAPTURES + CAPTURES; i++) {
+                long start = System.nanoTime();
+                driver.get(url);
+                WebDriverUtils.takeScreenShot(driver, driver.findElement(By.id("panel-" + (i % PANELS))), image.getPath());
+                if (i >= WARMUP_CAPTURES) {
+                    latencies.add((System.nanoTime() - start) / 1_000_000);
+                }
+            }
+            Collections.sort(latencies);
+            long rssKb = ProcessStats.readRssKb(wrapper.getProcessId());
+            System.out.printf("%-9s | %8d | %14d | %14d | %8d | %14s%n", name, startMillis,
+                    latencies.get(latencies.size() / 2), latencies.get(latencies.size() * 95 / 100),
+                    image.length() / 1024, rssKb < 0 ? "?" : String.valueOf(rssKb / 1024));
+        } finally {
+            wrapper.shutdown();
+            image.delete();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package nl.revolution.watchboard.utils;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.WebDriver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class PageProbeTest {
+
+    @Test
+    public void queriesAreAnsweredByOneScriptCall() throws Exception {
+        WebDriver driver = mock(WebDriver.class, withSettings().extraInterfaces(JavascriptExecutor.class));
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("charts", 3L);
+        answers.put("visible", 2L);
+        answers.put("grid", Arrays.asList(10.4, 20.6, 300L, 150.5));
+        answers.put("missing", null);
+        when(((JavascriptExecutor) driver).executeScript(anyString(), any(List.class))).thenReturn(answers);
+
+        PageProbe.Result probe = PageProbe.on(driver)
+                .count("charts", ".visualize-chart")
+                .visible("visible", ".visualize-chart")
+                .bounds("grid", "dashboard-grid")
+                .bounds("missing", ".missing")
+                .run();
+
+        ArgumentCaptor<List> queries = ArgumentCaptor.forClass(List.class);
+        verify((JavascriptExecutor) driver, times(1)).executeScript(anyString(), queries.capture());
+        assertThat(queries.getValue().size(), is(4));
+        assertThat(probe.count("charts"), is(3L));
+        assertThat(probe.count("visible"), is(2L));
+        assertThat(probe.location("grid"), is(new Point(10, 21)));
+        assertThat(probe.size("grid"), is(new Dimension(300, 151)));
+        assertThat(probe.exists("missing"), is(false));
+    }
+
+}
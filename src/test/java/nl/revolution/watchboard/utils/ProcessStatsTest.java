@@ -0,0 +1,29 @@
+package nl.revolution.watchboard.utils;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ProcessStatsTest {
+
+    @Test
+    public void parseRssKb() throws Exception {
+        String status = "Name:\tphantomjs\nState:\tS (sleeping)\nVmPeak:\t 1203456 kB\nVmRSS:\t  345678 kB\nThreads:\t12\n";
+        assertThat(ProcessStats.parseRssKb(status), is(345678L));
+        assertThat(ProcessStats.parseRssKb("Name:\tkthreadd\n"), is(-1L));
+    }
+
+    @Test
+    public void parseCpuTicksWithSpacesInCommandName() throws Exception {
+        String stat = "4242 (phantom js) S 1 4242 4242 0 -1 4194304 21815 0 0 0 1250 375 0 0 20 0 12 0 8794 1234 5678";
+        assertThat(ProcessStats.parseCpuTicks(stat), is(1625L));
+    }
+
+    @Test
+    public void parseParentPid() throws Exception {
+        String stat = "4243 (chrome) S 4242 4243 4243 0 -1 4194304 21815 0 0 0 1250 375 0 0 20 0 12 0 8794 1234 5678";
+        assertThat(ProcessStats.parseParentPid(stat), is(4242));
+    }
+
+}
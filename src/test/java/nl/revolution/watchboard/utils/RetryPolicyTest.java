@@ -0,0 +1,68 @@
+package nl.revolution.watchboard.utils;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesUntilSuccessAndGivesUpAfterMaxAttempts() throws Exception {
+        RetryPolicy policy = new RetryPolicy("test", null, 3, 1, 10, 100, Clock.systemDefaultZone());
+
+        AtomicInteger attempts = new AtomicInteger();
+        policy.run("TEST", attempt -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("attempt " + attempt);
+            }
+        });
+        assertThat(attempts.get(), is(3));
+
+        attempts.set(0);
+        try {
+            policy.run("TEST", attempt -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("attempt " + attempt);
+            });
+            fail("Expected the last failure to be thrown.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("attempt 3"));
+        }
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void retryBudgetIsSharedByAllCallers() throws Exception {
+        RetryPolicy policy = new RetryPolicy("test", null, 5, 1, 10, 3, Clock.systemDefaultZone());
+
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            try {
+                policy.run("TEST", attempt -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException("down");
+                });
+                fail("Expected the failure to be thrown.");
+            } catch (IllegalStateException expected) {
+                // Upstream is down.
+            }
+        }
+        // 2 first attempts plus the 3 retries the budget allows.
+        assertThat(attempts.get(), is(5));
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToTheMaximum() throws Exception {
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long expected = Math.min(1000L << (attempt - 1), 30000);
+            long backoff = RetryPolicy.backoffMillis(attempt, 1000, 30000);
+            assertThat(backoff >= expected * 0.8 && backoff <= expected * 1.2, is(true));
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.metrics.LatencyHistogram;
+import nl.revolution.watchboard.metrics.Metrics;
+import org.junit.Test;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TimedCommandExecutorTest {
+
+    @Test
+    public void commandsAreTimedPerPluginGraphAndCapture() throws Exception {
+        CommandExecutor delegate = mock(CommandExecutor.class);
+        when(delegate.execute(any(Command.class))).thenReturn(new Response());
+        TimedCommandExecutor executor = new TimedCommandExecutor(delegate, "TEST");
+        SessionId session = new SessionId("session");
+
+        Map<String, LatencyHistogram> commandLatency = new HashMap<>();
+        CaptureContext.begin(() -> false, new HashMap<>(), commandLatency, 3, 1000, System.currentTimeMillis() + 60_000);
+        try {
+            executor.execute(new Command(session, DriverCommand.GET));
+            executor.execute(new Command(session, DriverCommand.FIND_ELEMENTS));
+            executor.execute(new Command(session, DriverCommand.FIND_CHILD_ELEMENT));
+            executor.execute(new Command(session, DriverCommand.GET_ELEMENT_SIZE));
+            assertThat(CaptureContext.commandSummary().matches("element 1x \\d+ ms, findElement 2x \\d+ ms, get 1x \\d+ ms"), is(true));
+        } finally {
+            CaptureContext.end(true);
+        }
+
+        assertThat(commandLatency.get("findElement").getCount(), is(2L));
+        assertThat(Metrics.getInstance().getHistogram("webdriver.command.findElement.TEST").getCount(), is(2L));
+
+        // Outside a capture, only the plugin histograms are updated.
+        executor.execute(new Command(session, DriverCommand.SCREENSHOT));
+        assertThat(Metrics.getInstance().getHistogram("webdriver.command.screenshot.TEST").getCount(), is(1L));
+        assertThat(commandLatency.containsKey("screenshot"), is(false));
+    }
+
+}
@@ -0,0 +1,88 @@
+package nl.revolution.watchboard.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class WebDriverUtilsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cropAndPublishClipsElementToScreenshot() throws Exception {
+        BufferedImage page = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        page.setRGB(150, 60, 0xff0000);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(page, "png", png);
+
+        File target = new File(folder.getRoot(), "graph.png");
+        WebDriverUtils.cropAndPublish(png.toByteArray(), new Point(150, 60), new Dimension(80, 30), target.getPath());
+
+        BufferedImage published = ImageIO.read(target);
+        assertThat(published.getWidth(), is(50));
+        assertThat(published.getHeight(), is(30));
+        assertThat(published.getRGB(0, 0) & 0xffffff, is(0xff0000));
+        assertThat(new File(folder.getRoot(), "graph.png.tmp").exists(), is(false));
+    }
+
+    @Test
+    public void clipScreenshotsArePublishedWithoutCropping() throws Exception {
+        WebDriver driver = mock(WebDriver.class, withSettings().extraInterfaces(JavascriptExecutor.class, TakesClipScreenshot.class));
+        WebElement element = mock(WebElement.class);
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("element", Arrays.asList(10.0, 20.4, 300.0, 150.0));
+        when(((JavascriptExecutor) driver).executeScript(anyString(), anyVararg())).thenReturn(answers);
+        byte[] png = {1, 2, 3};
+        when(((TakesClipScreenshot) driver).getScreenshotOf(new Point(10, 20), new Dimension(300, 150))).thenReturn(png);
+
+        File target = new File(folder.getRoot(), "graph.png");
+        WebDriverUtils.takeScreenShot(driver, element, target.getPath());
+
+        assertThat(Files.readAllBytes(target.toPath()), is(png));
+    }
+
+    @Test
+    public void unchangedTimeoutsAreNotSentAgain() throws Exception {
+        WebDriver driver = mock(WebDriver.class, RETURNS_DEEP_STUBS);
+        WebDriver.Timeouts timeouts = driver.manage().timeouts();
+
+        WebDriverUtils.disableTimeouts(driver);
+        WebDriverUtils.disableTimeouts(driver);
+        verify(timeouts, times(1)).pageLoadTimeout(0, TimeUnit.MILLISECONDS);
+        verify(timeouts, times(1)).setScriptTimeout(0, TimeUnit.MILLISECONDS);
+        verify(timeouts, times(1)).implicitlyWait(0, TimeUnit.MILLISECONDS);
+
+        WebDriverUtils.setScriptTimeout(driver, 5000);
+        WebDriverUtils.disableTimeouts(driver);
+        verify(timeouts, times(2)).setScriptTimeout(0, TimeUnit.MILLISECONDS);
+        verify(timeouts, times(1)).pageLoadTimeout(0, TimeUnit.MILLISECONDS);
+    }
+
+}